@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Instantiates singletons and starts the life cycle of an injector in background
+ */
+final class BackgroundStart
+{
+    private final Injector injector;
+    private final LifeCycleManager lifeCycleManager;
+    private final Executor executor;
+    private final Map<Key<?>, CompletableFuture<Object>> singletons;
+    private final CompletableFuture<Void> started;
+
+    private BackgroundStart(Injector injector, LifeCycleManager lifeCycleManager, Executor executor,
+            Map<Key<?>, CompletableFuture<Object>> singletons, CompletableFuture<Void> started)
+    {
+        this.injector = injector;
+        this.lifeCycleManager = lifeCycleManager;
+        this.executor = executor;
+        this.singletons = singletons;
+        this.started = started;
+    }
+
+    static BackgroundStart start(Injector injector, final LifeCycleManager lifeCycleManager, Executor executor)
+    {
+        Map<Key<?>, CompletableFuture<Object>> singletons = new SingletonInstantiator(injector).start(executor);
+        CompletableFuture<Void> started = CompletableFuture.allOf(singletons.values().toArray(new CompletableFuture<?>[0]))
+            .thenRunAsync(new Runnable() {
+                public void run()
+                {
+                    lifeCycleManager.start();
+                }
+            }, executor);
+        return new BackgroundStart(injector, lifeCycleManager, executor, singletons, started);
+    }
+
+    CompletableFuture<Void> whenStarted()
+    {
+        return started;
+    }
+
+    <T> CompletableFuture<T> whenReady(final Key<T> key)
+    {
+        CompletableFuture<Object> constructed = singletons.get(key);
+        if (constructed == null) {
+            List<CompletableFuture<Object>> dependencies = Lists.newArrayList();
+            Predicate<Key<?>> isSingleton = new Predicate<Key<?>>() {
+                public boolean test(Key<?> dependency)
+                {
+                    return singletons.containsKey(dependency);
+                }
+            };
+            for (Key<?> dependency : new DependencyGraph(injector).nearestDependencies(key, isSingleton)) {
+                dependencies.add(singletons.get(dependency));
+            }
+            constructed = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(new Function<Void, Object>() {
+                    public Object apply(Void ignored)
+                    {
+                        return injector.getInstance(key);
+                    }
+                }, executor);
+        }
+
+        return constructed.thenCompose(new Function<Object, CompletableFuture<T>>() {
+            public CompletableFuture<T> apply(Object instance)
+            {
+                @SuppressWarnings("unchecked")
+                final T typed = (T) instance;  // constructed by injector.getInstance(key)
+                if (!lifeCycleManager.hasPendingPostConstruct()) {
+                    return CompletableFuture.completedFuture(typed);
+                }
+                // some PostConstruct methods are deferred until the life cycle starts
+                return started.thenApply(new Function<Void, T>() {
+                    public T apply(Void ignored)
+                    {
+                        return typed;
+                    }
+                });
+            }
+        });
+    }
+}
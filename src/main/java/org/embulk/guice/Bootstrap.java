@@ -15,30 +15,55 @@
  */
 package org.embulk.guice;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import com.google.inject.Binder;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.ProvisionException;
 import com.google.inject.Stage;
+import com.google.inject.spi.Elements;
 import com.google.inject.util.Modules;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class Bootstrap
 {
     private final List<Module> modules = Lists.newArrayList();
 
+    private final List<List<Module>> lazyModules = Lists.newArrayList();
+
+    private List<LazyChildInjector> lazyChildInjectors = ImmutableList.of();
+
     private final List<Function<? super List<Module>, ? extends Iterable<? extends Module>>> moduleOverrides = Lists.newArrayList();
 
     private final List<LifeCycleListener> lifeCycleListeners = Lists.newArrayList();
 
     private boolean requireExplicitBindings = true;
 
+    private Executor singletonExecutor;
+
+    private final LifeCycleOptions lifeCycleOptions = new LifeCycleOptions();
+
+    private ClassPreloader classPreloader;
+
     private boolean started;
 
     public Bootstrap(Module... modules)
@@ -68,6 +93,180 @@ public class Bootstrap
         return this;
     }
 
+    /**
+     * Instantiates singletons concurrently on the executor instead of one by one in Guice.createInjector.
+     * A singleton is instantiated after all singletons it depends on.
+     *
+     * The injector is created in Stage.DEVELOPMENT, and all singletons are instantiated before
+     * {@link #initialize()} returns as they are in Stage.PRODUCTION. The stage is observable:
+     * {@code injector.getInstance(Stage.class)} returns Stage.DEVELOPMENT in this mode.
+     *
+     * Bindings made with asEagerSingleton are excluded. Guice instantiates them one by one in
+     * Guice.createInjector before the other singletons are instantiated concurrently.
+     *
+     * @param executor executor to instantiate singletons on, or null to instantiate them in Guice.createInjector
+     * @return this
+     */
+    public Bootstrap instantiateSingletonsConcurrently(Executor executor)
+    {
+        this.singletonExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Defers PostConstruct methods until the life cycle starts, and calls them concurrently on the executor.
+     * An instance is started after all instances it depends on. Instances injected after the life cycle
+     * started are started when they are injected.
+     *
+     * LifeCycleListener methods may be called from threads of the executor in this mode.
+     *
+     * @param executor executor to call PostConstruct methods on, or null to call them when instances are injected
+     * @return this
+     */
+    public Bootstrap postConstructConcurrently(Executor executor)
+    {
+        lifeCycleOptions.setPostConstructExecutor(executor);
+        return this;
+    }
+
+    /**
+     * Calls PreDestroy methods concurrently on the executor. Instances are destroyed level by level so that
+     * an instance is destroyed before all instances it depends on. Pass a bounded executor to limit the
+     * number of instances destroyed at once.
+     *
+     * @param executor executor to call PreDestroy methods on, or null to call them one by one
+     * @return this
+     */
+    public Bootstrap preDestroyConcurrently(Executor executor)
+    {
+        lifeCycleOptions.setPreDestroyExecutor(executor);
+        return this;
+    }
+
+    /**
+     * Aborts starting at the first failure of instantiating a singleton or calling a PostConstruct method.
+     * Pending instances are skipped, and threads of the executors still starting instances are interrupted.
+     * Then instances already started are destroyed, concurrently if PreDestroy or PostConstruct methods are
+     * called concurrently, and the failure is thrown with failures of PreDestroy methods suppressed.
+     *
+     * Without this option, instances already started are not destroyed when starting fails.
+     *
+     * @param failFast true to abort and roll back starting at the first failure
+     * @return this
+     */
+    public Bootstrap failFast(boolean failFast)
+    {
+        lifeCycleOptions.setFailFast(failFast);
+        return this;
+    }
+
+    /**
+     * Watches PostConstruct methods called while the injector starts. When a method runs longer than callTimeout,
+     * or starting all instances takes longer than totalTimeout, the stack trace of the thread running the method
+     * is logged as a warning of java.util.logging and passed to
+     * {@link LifeCycleListener#postConstructTimedOut(Object, java.lang.reflect.Method, long, StackTraceElement[])}.
+     *
+     * If abort is true, the thread is also interrupted, and the startup fails with a TimeoutException when
+     * the method returns, or before the next PostConstruct method is called. Combine it with
+     * {@link #failFast(boolean)} to destroy instances already started.
+     *
+     * @param callTimeout budget of a PostConstruct method, or 0 not to watch each method
+     * @param totalTimeout budget of starting all instances, or 0 not to watch the total
+     * @param unit unit of the timeouts
+     * @param abort true to abort the startup when a budget is exceeded
+     * @return this
+     */
+    public Bootstrap watchStartup(long callTimeout, long totalTimeout, TimeUnit unit, boolean abort)
+    {
+        lifeCycleOptions.setStartupWatchdog(unit.toNanos(callTimeout), unit.toNanos(totalTimeout), abort);
+        return this;
+    }
+
+    /**
+     * Runs all life cycle work on the executor: singletons are instantiated, PostConstruct methods are called,
+     * and PreDestroy methods are called concurrently as {@link #instantiateSingletonsConcurrently(Executor)},
+     * {@link #postConstructConcurrently(Executor)} and {@link #preDestroyConcurrently(Executor)} do.
+     *
+     * @param executor executor to run life cycle work on
+     * @return this
+     */
+    public Bootstrap runLifeCycleConcurrently(Executor executor)
+    {
+        return instantiateSingletonsConcurrently(executor)
+            .postConstructConcurrently(executor)
+            .preDestroyConcurrently(executor);
+    }
+
+    /**
+     * Runs all life cycle work concurrently on {@link LifeCycleExecutors#getDefault()}, which uses virtual threads
+     * on Java 21 or later.
+     *
+     * @return this
+     * @see #runLifeCycleConcurrently(Executor)
+     */
+    public Bootstrap runLifeCycleConcurrently()
+    {
+        return runLifeCycleConcurrently(LifeCycleExecutors.getDefault());
+    }
+
+    /**
+     * Bounds the time to destroy the life cycle, including the destroy by the shutdown hook. A PreDestroy
+     * method running longer than instanceTimeout, or still running when totalTimeout expires, is abandoned
+     * and the other instances are destroyed. Instances that remain after totalTimeout are skipped. The destroy
+     * then throws a TimeoutException that lists them, with stack traces of the abandoned methods.
+     *
+     * The instanceTimeout counts from when PreDestroy methods of the instance are submitted to the executor,
+     * so an instance that waits longer for a thread of a bounded executor is skipped.
+     *
+     * @param instanceTimeout timeout of PreDestroy methods of each instance, or 0 for no timeout
+     * @param totalTimeout timeout of destroying all instances, or 0 for no timeout
+     * @param unit unit of the timeouts
+     * @return this
+     * @see LifeCycleManager#destroy(long, TimeUnit)
+     */
+    public Bootstrap destroyTimeout(long instanceTimeout, long totalTimeout, TimeUnit unit)
+    {
+        lifeCycleOptions.setDestroyTimeouts(unit.toNanos(instanceTimeout), unit.toNanos(totalTimeout));
+        return this;
+    }
+
+    /**
+     * Shuts down singleton ExecutorServices provided by the injector when the life cycle is destroyed. After all PreDestroy
+     * methods are called, all of them receive {@link java.util.concurrent.ExecutorService#shutdown()} and are
+     * awaited together until the timeout, and those still running then receive
+     * {@link java.util.concurrent.ExecutorService#shutdownNow()}.
+     *
+     * ExecutorServices bound with toInstance are not provided by the injector and are not shut down. Neither are
+     * those of unscoped bindings, which may return executors that the application doesn't own.
+     *
+     * @param timeout time to wait for all ExecutorServices to terminate
+     * @param unit unit of the timeout
+     * @return this
+     */
+    public Bootstrap shutdownExecutorServices(long timeout, TimeUnit unit)
+    {
+        lifeCycleOptions.setExecutorServiceTimeoutNanos(unit.toNanos(timeout));
+        return this;
+    }
+
+    /**
+     * Loads classes listed in the file in parallel on the executor while the injector is created. If the file
+     * doesn't exist, classes used by the bindings are written to the file after the injector is created.
+     * Delete the file to record it again.
+     *
+     * Classes are loaded by the context class loader of the thread that initializes the injector, without
+     * initialization.
+     *
+     * @param classListFile file to read and record the list of classes
+     * @param executor executor to load classes on
+     * @return this
+     */
+    public Bootstrap preloadClasses(Path classListFile, Executor executor)
+    {
+        this.classPreloader = new ClassPreloader(classListFile, executor);
+        return this;
+    }
+
     public Bootstrap addModules(Module... additionalModules)
     {
         return addModules(ImmutableList.copyOf(additionalModules));
@@ -79,6 +278,28 @@ public class Bootstrap
         return this;
     }
 
+    /**
+     * Adds modules whose bindings are placed in a child injector. The child injector is created at the first
+     * request for one of its keys through the returned injector, and instances in it are started then.
+     * Instances never created are not destroyed.
+     *
+     * Each call adds a separate child injector. Bindings of the other modules must not depend on bindings of
+     * lazy modules, and {@link #overrideModulesWith} does not override lazy modules.
+     *
+     * @param lazyModules modules of a child injector
+     * @return this
+     */
+    public Bootstrap addLazyModules(Module... lazyModules)
+    {
+        return addLazyModules(ImmutableList.copyOf(lazyModules));
+    }
+
+    public Bootstrap addLazyModules(Iterable<? extends Module> lazyModules)
+    {
+        this.lazyModules.add(ImmutableList.<Module>copyOf(lazyModules));
+        return this;
+    }
+
     public Bootstrap overrideModulesWith(Module... overridingModules)
     {
         return overrideModulesWith(ImmutableList.copyOf(overridingModules));
@@ -86,14 +307,27 @@ public class Bootstrap
 
     public Bootstrap overrideModulesWith(Iterable<? extends Module> overridingModules)
     {
-        final List<Module> immutableCopy = ImmutableList.copyOf(overridingModules);
+        return overrideModules(new OverrideWith(ImmutableList.<Module>copyOf(overridingModules)));
+    }
 
-        return overrideModules(new Function<List<Module>, List<Module>>() {
-            public List<Module> apply(List<Module> modules)
-            {
-                return ImmutableList.of(Modules.override(modules).with(immutableCopy));
-            }
-        });
+    /**
+     * Override function added by overrideModulesWith. Consecutive ones are applied in one Modules.override
+     * so that the elements of the overridden modules are rewritten once regardless of the number of calls.
+     */
+    private static class OverrideWith
+            implements Function<List<Module>, List<Module>>
+    {
+        private final List<Module> overridingModules;
+
+        OverrideWith(List<Module> overridingModules)
+        {
+            this.overridingModules = overridingModules;
+        }
+
+        public List<Module> apply(List<Module> modules)
+        {
+            return ImmutableList.of(Modules.override(modules).with(overridingModules));
+        }
     }
 
     @Deprecated  // Using Guava's Function is deprecated.
@@ -125,27 +359,312 @@ public class Bootstrap
         return build(false);
     }
 
+    /**
+     * Uses the listeners and options of the life cycle of the parent, for a child injector
+     * created by {@link LifeCycleInjector#createChildLifeCycleInjector(Iterable)}.
+     */
+    Bootstrap inheritLifeCycle(LifeCycleManager parent)
+    {
+        lifeCycleListeners.addAll(parent.getListeners());
+        lifeCycleOptions.copyFrom(parent.getOptions());
+        return this;
+    }
+
+    /**
+     * Creates a child injector of the parent with the modules of this Bootstrap, and starts its life cycle.
+     *
+     * The child injector has its own LifeCycleManager for instances it constructs, and destroying it calls
+     * only their PreDestroy methods. Destroying the parent destroys live children first. The child inherits
+     * bindings and scopes of the parent, and injecting LifeCycleManager gets the manager of the parent.
+     * Lazy modules and class preloading apply only to root injectors.
+     *
+     * @param parent the parent injector
+     * @return the started child injector
+     * @throws IllegalStateException if the parent is already destroyed
+     */
+    public CloseableInjector initializeChild(LifeCycleInjector parent)
+    {
+        if (!lazyModules.isEmpty()) {
+            throw new IllegalStateException("Lazy modules are not supported for child injectors");
+        }
+        List<Module> userModules = configuredModules();
+        markStarted();
+
+        LifeCycleModule lifeCycleModule = new LifeCycleModule(ImmutableList.copyOf(lifeCycleListeners), lifeCycleOptions);
+        Injector injector = parent.createChildInjector(ImmutableList.<Module>builder()
+                .addAll(userModules)
+                .add(lifeCycleModule.childModule())
+                .build());
+
+        LifeCycleManager lifeCycleManager;
+        try {
+            lifeCycleManager = lifeCycleModule.getServerManager();
+        }
+        catch (Exception ex) {
+            Throwables.throwIfUnchecked(ex);
+            throw new ProvisionException("Failed to start the child injector", ex);
+        }
+        try {
+            // LifeCycleManager bound in a child injector is the manager of the root injector
+            LifeCycleManager parentManager = (parent instanceof LifeCycleInjectorProxy)
+                ? ((LifeCycleInjectorProxy) parent).getLifeCycleManager()
+                : parent.getInstance(LifeCycleManager.class);
+            parentManager.addChild(lifeCycleManager);
+            if (singletonExecutor != null) {
+                new SingletonInstantiator(injector).instantiate(singletonExecutor, lifeCycleOptions.isFailFast());
+            }
+            lifeCycleManager.start();
+        }
+        catch (RuntimeException | Error ex) {
+            lifeCycleManager.rollback(ex);
+            throw ex;
+        }
+        return new LifeCycleInjectorProxy(injector, lifeCycleManager);
+    }
+
+    /**
+     * Runs configure methods of modules and override functions once, and returns a blueprint that creates
+     * injectors from the recorded bindings. This Bootstrap can't initialize an injector after that.
+     *
+     * Each injector created by the blueprint has its own LifeCycleModule and LifeCycleManager. Instances
+     * bound with toInstance are shared by the injectors. Modules that have elements set up by a single
+     * injector, such as Provides methods, multibindings, lookups by getProvider of Binder and private
+     * modules, are configured again for each injector after the first.
+     *
+     * @return the blueprint
+     */
+    public PreparedBootstrap prepare()
+    {
+        Stage stage = stage();
+        List<Module> userModules = configuredModules();
+        markStarted();
+
+        return new PreparedBootstrap(this, stage, userModules, lazyModules);
+    }
+
+    /**
+     * Creates the injector and returns it without waiting for singletons and the life cycle to start.
+     * Singletons are instantiated and the life cycle is started on the executor.
+     *
+     * The injector is created in Stage.DEVELOPMENT. Use {@link LifeCycleInjector#whenReady(Key)} to wait for
+     * an instance and everything it depends on, and {@link LifeCycleInjector#whenStarted()} to wait for all.
+     *
+     * @param executor executor to instantiate singletons and start the life cycle on
+     * @return the injector that is starting
+     */
+    public LifeCycleInjector initializeInBackground(Executor executor)
+    {
+        Injector injector = createInjector(Stage.DEVELOPMENT);
+        LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
+        lifeCycleManager.destroyOnShutdownHook();
+        BackgroundStart backgroundStart = BackgroundStart.start(injector, lifeCycleManager, executor);
+        return new LifeCycleInjectorProxy(injector, lifeCycleManager, backgroundStart, lazyChildInjectors);
+    }
+
+    /**
+     * Creates the injector and starts the life cycle on the executor, as {@link #initialize()} does.
+     *
+     * Cancelling the returned future aborts the startup at the next step, and destroys instances
+     * that were already started. Failures of the destroy are added to the CancellationException of
+     * the future as suppressed exceptions when the destroy finishes.
+     *
+     * @param executor executor to create the injector on
+     * @return the future of the started injector
+     */
+    public CompletableFuture<LifeCycleInjector> initializeAsync(Executor executor)
+    {
+        return buildAsync(true, LifeCycleInjector.class, executor);
+    }
+
+    /**
+     * Creates the injector and starts the life cycle on the executor, as {@link #initializeCloseable()} does.
+     *
+     * @param executor executor to create the injector on
+     * @return the future of the started injector
+     * @see #initializeAsync(Executor)
+     */
+    public CompletableFuture<CloseableInjector> initializeCloseableAsync(Executor executor)
+    {
+        return buildAsync(false, CloseableInjector.class, executor);
+    }
+
+    boolean runsLifeCycleOn(Executor executor)
+    {
+        return singletonExecutor == executor
+            || lifeCycleOptions.getPostConstructExecutor() == executor
+            || lifeCycleOptions.getPreDestroyExecutor() == executor;
+    }
+
+    <I extends LifeCycleInjector> StartingFuture<I> buildAsync(final boolean destroyOnShutdownHook,
+            final Class<I> injectorType, Executor executor)
+    {
+        final StartingFuture<I> future = new StartingFuture<I>();
+        try {
+            executor.execute(new Runnable() {
+                public void run()
+                {
+                    try {
+                        if (future.isDone()) {
+                            return;  // cancelled before starting
+                        }
+                        LifeCycleInjectorProxy injector;
+                        try {
+                            injector = build(destroyOnShutdownHook, future);
+                        }
+                        catch (Throwable ex) {
+                            future.completeExceptionally(ex);
+                            return;
+                        }
+                        if (!future.complete(injectorType.cast(injector))) {
+                            // cancelled while the life cycle was starting
+                            try {
+                                injector.destroy();
+                            }
+                            catch (Exception ex) {
+                                future.addRollbackFailure(ex);
+                            }
+                        }
+                    }
+                    finally {
+                        future.finish();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+            future.finish();
+        }
+        return future;
+    }
+
+    /**
+     * Future of an injector starting on an executor, which also tells when the startup finished
+     * destroying instances after a cancellation. Failures of the destroy are added to the
+     * CancellationException of the future.
+     */
+    static final class StartingFuture<I>
+            extends CompletableFuture<I>
+    {
+        private final CancellationException cancellation = new CancellationException("Bootstrap cancelled");
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            return completeExceptionally(cancellation) || isCancelled();
+        }
+
+        private void addRollbackFailure(Throwable failure)
+        {
+            cancellation.addSuppressed(failure);
+        }
+
+        private void finish()
+        {
+            finished.countDown();
+        }
+
+        void awaitFinished()
+        {
+            Uninterruptibles.awaitUninterruptibly(finished);
+        }
+    }
+
     private LifeCycleInjectorProxy build(boolean destroyOnShutdownHook)
     {
-        Injector injector = start();
+        return build(destroyOnShutdownHook, null);
+    }
+
+    private LifeCycleInjectorProxy build(boolean destroyOnShutdownHook, StartingFuture<?> cancellation)
+    {
+        Injector injector = start(cancellation);
         LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
         if (destroyOnShutdownHook) {
             lifeCycleManager.destroyOnShutdownHook();
         }
-        return new LifeCycleInjectorProxy(injector, lifeCycleManager);
+        return new LifeCycleInjectorProxy(injector, lifeCycleManager, null, lazyChildInjectors);
+    }
+
+    private Injector start(StartingFuture<?> cancellation)
+    {
+        Injector injector = createInjector(stage());
+        startLifeCycle(injector, cancellation);
+        return injector;
+    }
+
+    private Stage stage()
+    {
+        return (singletonExecutor != null) ? Stage.DEVELOPMENT : Stage.PRODUCTION;
+    }
+
+    void startLifeCycle(Injector injector, StartingFuture<?> cancellation)
+    {
+        LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
+        if (singletonExecutor != null) {
+            abortIfCancelled(lifeCycleManager, cancellation);
+            try {
+                new SingletonInstantiator(injector).instantiate(singletonExecutor, lifeCycleOptions.isFailFast());
+            }
+            catch (RuntimeException | Error ex) {
+                if (lifeCycleOptions.isFailFast()) {
+                    lifeCycleManager.rollback(ex);
+                }
+                throw ex;
+            }
+        }
+        abortIfCancelled(lifeCycleManager, cancellation);
+        // started even if it's empty so that instances injected later are destroyed
+        lifeCycleManager.start();
+    }
+
+    private static void abortIfCancelled(LifeCycleManager lifeCycleManager, StartingFuture<?> cancellation)
+    {
+        if (cancellation != null && cancellation.isCancelled()) {
+            try {
+                lifeCycleManager.destroy();
+            }
+            catch (Exception ex) {
+                cancellation.addRollbackFailure(ex);
+            }
+            throw new CancellationException("Bootstrap cancelled");
+        }
+    }
+
+    private Injector createInjector(Stage stage)
+    {
+        List<Module> userModules = configuredModules();
+        markStarted();
+
+        ImmutableList.Builder<LazyChildInjector> lazyBuilder = ImmutableList.builder();
+        for (List<Module> lazy : lazyModules) {
+            lazyBuilder.add(new LazyChildInjector(Elements.getElements(stage, lazy)));
+        }
+        lazyChildInjectors = lazyBuilder.build();
+
+        return createInjector(stage, userModules, true);
     }
 
-    private Injector start()
+    private List<Module> configuredModules()
     {
         List<Module> userModules = ImmutableList.copyOf(modules);
+        List<Module> overridingModules = null;
         for (Function<? super List<Module>, ? extends Iterable<? extends Module>> moduleOverride : moduleOverrides) {
+            if (moduleOverride instanceof OverrideWith) {
+                // override(override(modules).with(a)).with(b) is override(modules).with(override(a).with(b))
+                List<Module> layer = ((OverrideWith) moduleOverride).overridingModules;
+                overridingModules = (overridingModules == null) ? layer : ImmutableList.of(Modules.override(overridingModules).with(layer));
+                continue;
+            }
+            if (overridingModules != null) {
+                userModules = new OverrideWith(overridingModules).apply(userModules);
+                overridingModules = null;
+            }
             userModules = ImmutableList.copyOf(moduleOverride.apply(userModules));
         }
-
-        if (started) {
-            throw new IllegalStateException("System already initialized");
+        if (overridingModules != null) {
+            userModules = new OverrideWith(overridingModules).apply(userModules);
         }
-        started = true;
 
         ImmutableList.Builder<Module> builder = ImmutableList.builder();
 
@@ -163,13 +682,54 @@ public class Bootstrap
             }
         });
 
-        builder.add(new LifeCycleModule(ImmutableList.copyOf(lifeCycleListeners)));
+        return builder.build();
+    }
+
+    private void markStarted()
+    {
+        if (started) {
+            throw new IllegalStateException("System already initialized");
+        }
+        started = true;
+    }
 
-        Injector injector = Guice.createInjector(Stage.PRODUCTION, builder.build());
+    Injector createInjector(Stage stage, List<Module> userModules, boolean preloadClasses)
+    {
+        ImmutableList.Builder<Module> builder = ImmutableList.builder();
 
-        LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
-        if (lifeCycleManager.size() > 0) {
-            lifeCycleManager.start();
+        builder.addAll(userModules);
+
+        LifeCycleModule lifeCycleModule = new LifeCycleModule(ImmutableList.copyOf(lifeCycleListeners), lifeCycleOptions);
+        builder.add(lifeCycleModule);
+
+        boolean preloading = false;
+        if (classPreloader != null && preloadClasses) {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            preloading = classPreloader.preload(classLoader != null ? classLoader : Bootstrap.class.getClassLoader());
+        }
+
+        Injector injector;
+        try {
+            injector = Guice.createInjector(stage, builder.build());
+        }
+        catch (RuntimeException | Error ex) {
+            LifeCycleManager lifeCycleManager = lifeCycleModule.getCreatedLifeCycleManager();
+            if (lifeCycleManager != null) {
+                lifeCycleManager.closeWatchdog();
+                if (lifeCycleOptions.isFailFast()) {
+                    lifeCycleManager.rollback(ex);
+                }
+            }
+            throw ex;
+        }
+
+        if (classPreloader != null && preloadClasses && !preloading) {
+            try {
+                classPreloader.record(injector);
+            }
+            catch (IOException ex) {
+                Logger.getLogger(Bootstrap.class.getName()).log(Level.WARNING, "Failed to record classes to preload", ex);
+            }
         }
 
         return injector;
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Initializes injectors of independent Bootstraps concurrently, and destroys them together
+ */
+public final class BootstrapGroup
+{
+    private final List<Bootstrap> bootstraps;
+    private List<LifeCycleInjector> injectors;
+    private Executor executor;
+
+    public BootstrapGroup(Bootstrap... bootstraps)
+    {
+        this(ImmutableList.copyOf(bootstraps));
+    }
+
+    public BootstrapGroup(Iterable<Bootstrap> bootstraps)
+    {
+        this.bootstraps = ImmutableList.copyOf(bootstraps);
+    }
+
+    /**
+     * Initializes injectors on the executor as {@link Bootstrap#initialize()} does. If one of them fails,
+     * the others are cancelled or destroyed, and the first failure is thrown with the others suppressed
+     * after all of them are rolled back.
+     *
+     * A thread of the executor blocks until its injector is started, and while it's destroyed. The Bootstraps
+     * must not run their life cycle on the same executor, including {@link LifeCycleExecutors#getDefault()}
+     * given to the group, because their tasks would wait behind the blocked threads and never run.
+     *
+     * @param executor executor to initialize and destroy injectors on. Bound its threads to limit
+     *        the number of injectors initialized at once.
+     * @return injectors in the order of the Bootstraps
+     * @throws IllegalArgumentException if a Bootstrap runs its life cycle on the executor
+     */
+    public synchronized List<LifeCycleInjector> initialize(Executor executor)
+    {
+        if (injectors != null) {
+            throw new IllegalStateException("Bootstrap group already initialized");
+        }
+        for (Bootstrap bootstrap : bootstraps) {
+            if (bootstrap.runsLifeCycleOn(executor)) {
+                throw new IllegalArgumentException("Bootstrap runs its life cycle on the executor of the group; use another executor");
+            }
+        }
+
+        final List<Bootstrap.StartingFuture<LifeCycleInjector>> futures = Lists.newArrayList();
+        for (Bootstrap bootstrap : bootstraps) {
+            futures.add(bootstrap.buildAsync(true, LifeCycleInjector.class, executor));
+        }
+        for (CompletableFuture<LifeCycleInjector> future : futures) {
+            future.whenComplete(new BiConsumer<LifeCycleInjector, Throwable>() {
+                public void accept(LifeCycleInjector injector, Throwable failure)
+                {
+                    if (failure != null) {
+                        for (CompletableFuture<LifeCycleInjector> other : futures) {
+                            other.cancel(false);  // a cancelled bootstrap destroys what it started
+                        }
+                    }
+                }
+            });
+        }
+
+        List<LifeCycleInjector> initialized = Lists.newArrayList();
+        Throwable failure = null;
+        for (Bootstrap.StartingFuture<LifeCycleInjector> future : futures) {
+            future.awaitFinished();  // a cancelled bootstrap finishes destroying what it started
+            try {
+                initialized.add(future.join());
+            }
+            catch (CancellationException ex) {
+                // cancelled by the failure of another bootstrap
+            }
+            catch (CompletionException ex) {
+                failure = addFailure(failure, ex.getCause());
+            }
+        }
+
+        this.executor = executor;
+        if (failure != null) {
+            this.injectors = ImmutableList.of();
+            failure = destroyAll(initialized, failure);
+            Throwables.throwIfUnchecked(failure);
+            throw new RuntimeException(failure);
+        }
+        this.injectors = ImmutableList.copyOf(initialized);
+        return injectors;
+    }
+
+    /**
+     * Destroys the injectors concurrently on the executor given to {@link #initialize(Executor)}.
+     * All injectors are destroyed even if some of them fail, and the first failure is thrown with
+     * the others suppressed.
+     *
+     * @throws Exception errors
+     */
+    public synchronized void destroy()
+            throws Exception
+    {
+        if (injectors == null) {
+            return;
+        }
+        Throwable failure = destroyAll(injectors, null);
+        if (failure != null) {
+            Throwables.throwIfInstanceOf(failure, Exception.class);
+            Throwables.throwIfUnchecked(failure);
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private Throwable destroyAll(List<LifeCycleInjector> injectors, Throwable failure)
+    {
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
+        for (LifeCycleInjector injector : injectors) {
+            futures.add(injector.destroyAsync(executor));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            }
+            catch (CompletionException ex) {
+                failure = addFailure(failure, ex.getCause());
+            }
+        }
+        return failure;
+    }
+
+    private static Throwable addFailure(Throwable first, Throwable failure)
+    {
+        if (first == null) {
+            return failure;
+        }
+        first.addSuppressed(failure);
+        return first;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Module;
+
+import java.util.List;
+
+/**
+ * Runs the bootstrap sequence of an application once, so that the JVM can record the classes it loads.
+ *
+ * Used by the example script docs/appcds.gradle to create an AppCDS archive:
+ *
+ * <pre>
+ * java -XX:DumpLoadedClassList=classes.lst -cp app.jar org.embulk.guice.BootstrapTraining com.example.AppModule
+ * </pre>
+ */
+public final class BootstrapTraining
+{
+    private BootstrapTraining()
+    {
+    }
+
+    /**
+     * Initializes the injector and destroys it.
+     *
+     * @param bootstrap bootstrap of the application
+     * @throws Exception errors while initializing or destroying the injector
+     */
+    public static void train(Bootstrap bootstrap)
+            throws Exception
+    {
+        try (CloseableInjector injector = bootstrap.initializeCloseable()) {
+            // only loads classes
+        }
+    }
+
+    /**
+     * @param args class names of modules with public constructors without arguments
+     * @throws Exception errors while loading modules or running the bootstrap
+     */
+    public static void main(String[] args)
+            throws Exception
+    {
+        List<Module> modules = Lists.newArrayList();
+        for (String className : args) {
+            Class<?> moduleClass = Class.forName(className);
+            modules.add((Module) moduleClass.getConstructor().newInstance());
+        }
+        train(new Bootstrap(modules));
+    }
+}
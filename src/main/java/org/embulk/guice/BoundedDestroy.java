@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Calls PreDestroy methods within a timeout of each instance and a deadline of all instances. Calls that exceed
+ * them are abandoned: they keep running in their threads, and the destroy continues with the other instances.
+ * The timeout of an instance counts from when its call is submitted to the executor, and calls that don't
+ * start within it are skipped.
+ */
+final class BoundedDestroy
+{
+    interface Stopper
+    {
+        void stop(Object obj) throws Exception;
+    }
+
+    private final Stopper stopper;
+    private final long instanceTimeoutNanos;
+    private final long deadlineNanos;
+    private final boolean hasDeadline;
+    private final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("pre-destroy-%d").setDaemon(true).build();
+    private final ScheduledThreadPoolExecutor timer;
+    private final List<TimeoutException> abandoned = Lists.newArrayList();
+    private final List<Object> skipped = Lists.newArrayList();
+    private ExecutorService callerThreads;
+
+    private final class Call
+    {
+        private final Object object;
+        private final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        private volatile Thread thread;
+        private volatile long startNanos;
+        private ScheduledFuture<?> timeout;
+
+        Call(Object object)
+        {
+            this.object = object;
+        }
+    }
+
+    /**
+     * @param stopper calls PreDestroy methods of an instance
+     * @param instanceTimeoutNanos timeout of each instance, or 0 for no timeout
+     * @param deadlineNanos System.nanoTime() until which instances are destroyed
+     * @param hasDeadline false to ignore deadlineNanos
+     */
+    BoundedDestroy(Stopper stopper, long instanceTimeoutNanos, long deadlineNanos, boolean hasDeadline)
+    {
+        this.stopper = stopper;
+        this.instanceTimeoutNanos = instanceTimeoutNanos;
+        this.deadlineNanos = deadlineNanos;
+        this.hasDeadline = hasDeadline;
+        this.timer = new ScheduledThreadPoolExecutor(1, threadFactory);
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Destroys the instances concurrently on the executor, and waits until they are destroyed, time out,
+     * or the deadline expires.
+     *
+     * @param instances instances to destroy
+     * @param executor executor to call PreDestroy methods on, or null to call them on a thread of this object
+     * @param failure failure of previous instances, or null
+     * @return failure with failures of the instances added as suppressed exceptions
+     */
+    Throwable stop(List<Object> instances, Executor executor, Throwable failure)
+    {
+        if (executor == null) {
+            if (callerThreads == null) {
+                callerThreads = Executors.newCachedThreadPool(threadFactory);
+            }
+            executor = callerThreads;
+        }
+
+        List<Call> calls = Lists.newArrayList();
+        for (Object obj : instances) {
+            if (isExpired()) {
+                addSkipped(obj);
+            }
+            else {
+                calls.add(start(obj, executor));
+            }
+        }
+        for (Call call : calls) {
+            failure = await(call, failure);
+        }
+        return failure;
+    }
+
+    /**
+     * @return TimeoutException listing instances not destroyed cleanly with stack traces of abandoned calls
+     *         suppressed, or null if all instances are destroyed
+     */
+    synchronized TimeoutException report()
+    {
+        if (abandoned.isEmpty() && skipped.isEmpty()) {
+            return null;
+        }
+        List<String> abandonedNames = Lists.newArrayList();
+        for (TimeoutException timeout : abandoned) {
+            abandonedNames.add(timeout.getMessage());
+        }
+        TimeoutException report = new TimeoutException("Destroy timed out. Instances not destroyed: " + classNamesOf(skipped)
+                + ", abandoned: " + abandonedNames);
+        for (TimeoutException timeout : abandoned) {
+            report.addSuppressed(timeout);
+        }
+        return report;
+    }
+
+    void close()
+    {
+        timer.shutdownNow();
+        if (callerThreads != null) {
+            callerThreads.shutdown();  // threads of abandoned calls exit when the calls return
+        }
+    }
+
+    private Call start(final Object obj, Executor executor)
+    {
+        final Call call = new Call(obj);
+        if (instanceTimeoutNanos > 0) {
+            // counts from the submission so that calls queued behind abandoned calls on a bounded executor
+            // are skipped instead of waiting for a thread forever
+            call.timeout = timer.schedule(new Runnable() {
+                public void run()
+                {
+                    abandon(call);
+                }
+            }, instanceTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        executor.execute(new Runnable() {
+            public void run()
+            {
+                synchronized (call) {
+                    if (call.result.isDone()) {
+                        return;  // abandoned before starting
+                    }
+                    call.startNanos = System.nanoTime();
+                    call.thread = Thread.currentThread();
+                }
+                Throwable failure = null;
+                try {
+                    stopper.stop(obj);
+                }
+                catch (Throwable ex) {
+                    failure = ex;
+                }
+                if (call.timeout != null) {
+                    call.timeout.cancel(false);
+                }
+                synchronized (call) {
+                    if (failure == null) {
+                        call.result.complete(null);
+                    }
+                    else {
+                        call.result.completeExceptionally(failure);
+                    }
+                }
+            }
+        });
+        return call;
+    }
+
+    private Throwable await(Call call, Throwable failure)
+    {
+        try {
+            if (hasDeadline) {
+                call.result.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            else {
+                call.result.get();
+            }
+            return failure;
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvocationTargetException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof AbandonedException) {
+                return failure;
+            }
+            return addFailure(failure, cause);
+        }
+        catch (TimeoutException ex) {
+            abandon(call);
+            return failure;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            abandon(call);
+            return failure;
+        }
+    }
+
+    private void abandon(Call call)
+    {
+        // recorded before the result is completed so that the waiting thread reports it
+        synchronized (call) {
+            if (call.result.isDone()) {
+                return;  // already finished
+            }
+            Thread thread = call.thread;
+            if (thread == null) {
+                addSkipped(call.object);
+            }
+            else {
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.startNanos);
+                TimeoutException timeout = new TimeoutException(call.object.getClass().getName() + " after " + elapsedMillis + " ms");
+                timeout.setStackTrace(thread.getStackTrace());
+                synchronized (this) {
+                    abandoned.add(timeout);
+                }
+            }
+            call.result.completeExceptionally(new AbandonedException());
+        }
+    }
+
+    private synchronized void addSkipped(Object obj)
+    {
+        skipped.add(obj);
+    }
+
+    private boolean isExpired()
+    {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    private static Throwable addFailure(Throwable first, Throwable failure)
+    {
+        if (first == null) {
+            return failure;
+        }
+        first.addSuppressed(failure);
+        return first;
+    }
+
+    private static String classNamesOf(List<Object> instances)
+    {
+        List<String> names = Lists.newArrayList();
+        for (Object obj : instances) {
+            names.add(obj.getClass().getName());
+        }
+        return names.toString();
+    }
+
+    private static class AbandonedException
+            extends Exception
+    {
+    }
+}
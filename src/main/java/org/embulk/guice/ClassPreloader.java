@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.spi.ConstructorBinding;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.ExposedBinding;
+import com.google.inject.spi.HasDependencies;
+import com.google.inject.spi.InjectionPoint;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Records classes used by the bindings of an injector to a file, and loads them in parallel at the next start
+ * while the injector is created.
+ */
+final class ClassPreloader
+{
+    private static final int CLASSES_PER_TASK = 64;
+
+    private final Path classListFile;
+    private final Executor executor;
+
+    ClassPreloader(Path classListFile, Executor executor)
+    {
+        this.classListFile = classListFile;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts loading classes listed in the file on the executor, if the file exists.
+     * Classes are loaded without initialization, and classes that can't be loaded are ignored.
+     *
+     * @return true if the file exists
+     */
+    boolean preload(final ClassLoader classLoader)
+    {
+        if (!Files.exists(classListFile)) {
+            return false;
+        }
+        List<String> classNames;
+        try {
+            classNames = Files.readAllLines(classListFile, StandardCharsets.UTF_8);
+        }
+        catch (IOException ex) {
+            return false;  // only slower
+        }
+        for (final List<String> chunk : Lists.partition(classNames, CLASSES_PER_TASK)) {
+            executor.execute(new Runnable() {
+                public void run()
+                {
+                    for (String className : chunk) {
+                        try {
+                            Class.forName(className, false, classLoader);
+                        }
+                        catch (ClassNotFoundException | LinkageError ex) {
+                            // the file is older than the classpath
+                        }
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Writes the classes used by the bindings of the injector to the file.
+     */
+    void record(Injector injector)
+            throws IOException
+    {
+        Set<String> classNames = new TreeSet<>();
+        collectClasses(injector, classNames, Sets.<Class<?>>newHashSet());
+
+        Path tempFile = classListFile.resolveSibling(classListFile.getFileName() + ".tmp");
+        Files.write(tempFile, classNames, StandardCharsets.UTF_8);
+        Files.move(tempFile, classListFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void collectClasses(Injector injector, Set<String> classNames, Set<Class<?>> visited)
+    {
+        for (Binding<?> binding : injector.getAllBindings().values()) {
+            addClass(binding.getKey().getTypeLiteral().getRawType(), classNames, visited);
+            if (binding instanceof ConstructorBinding) {
+                ConstructorBinding<?> constructorBinding = (ConstructorBinding<?>) binding;
+                addClass(constructorBinding.getConstructor().getDeclaringType().getRawType(), classNames, visited);
+                for (InjectionPoint injectionPoint : constructorBinding.getInjectableMembers()) {
+                    addClass(injectionPoint.getDeclaringType().getRawType(), classNames, visited);
+                }
+            }
+            if (binding instanceof HasDependencies) {
+                for (Dependency<?> dependency : ((HasDependencies) binding).getDependencies()) {
+                    addClass(dependency.getKey().getTypeLiteral().getRawType(), classNames, visited);
+                }
+            }
+            if (binding instanceof ExposedBinding) {
+                Injector privateInjector = ((ExposedBinding<?>) binding).getPrivateElements().getInjector();
+                if (privateInjector != null) {
+                    collectClasses(privateInjector, classNames, visited);
+                }
+            }
+        }
+    }
+
+    private static void addClass(Class<?> clazz, Set<String> classNames, Set<Class<?>> visited)
+    {
+        if (clazz == null || clazz.isPrimitive() || clazz.isArray() || !visited.add(clazz)) {
+            return;
+        }
+        if (clazz.getClassLoader() == null) {
+            return;  // loaded by the bootstrap class loader at JVM startup
+        }
+        classNames.add(clazz.getName());
+        addClass(clazz.getSuperclass(), classNames, visited);
+        for (Class<?> interfaceClass : clazz.getInterfaces()) {
+            addClass(interfaceClass, classNames, visited);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Default executor of life cycle work on Java 8 to 20. META-INF/versions/21 of the jar has the one using
+ * virtual threads.
+ */
+final class DefaultLifeCycleExecutor
+{
+    private DefaultLifeCycleExecutor() { }
+
+    static Executor create()
+    {
+        return LifeCycleExecutors.newBoundedPool();
+    }
+}
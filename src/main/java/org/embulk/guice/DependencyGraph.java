@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.ConfigurationException;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.ExposedBinding;
+import com.google.inject.spi.HasDependencies;
+import com.google.inject.spi.InjectionPoint;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Static view of the binding graph of an injector
+ *
+ * Dependencies on {@link com.google.inject.Provider} are not followed because they are resolved lazily.
+ */
+final class DependencyGraph
+{
+    private final Injector injector;
+
+    DependencyGraph(Injector injector)
+    {
+        this.injector = injector;
+    }
+
+    /**
+     * Returns keys that are needed to provision the given key, stopping at the first key that matches
+     * the predicate on each path.
+     *
+     * @param key the key to start from
+     * @param stopAt predicate to select keys to return
+     * @return keys matched by the predicate
+     */
+    Set<Key<?>> nearestDependencies(Key<?> key, Predicate<Key<?>> stopAt)
+    {
+        Set<Key<?>> result = new LinkedHashSet<>();
+        Set<Node> visited = Sets.newHashSet();
+        Deque<Node> queue = new ArrayDeque<>();
+        Node start = new Node(injector, key);
+        visited.add(start);
+        queue.addAll(directDependencies(start));
+        while (!queue.isEmpty()) {
+            Node node = queue.removeFirst();
+            if (!visited.add(node)) {
+                continue;
+            }
+            if (stopAt.test(node.key)) {
+                result.add(node.key);
+                continue;
+            }
+            queue.addAll(directDependencies(node));
+        }
+        result.remove(key);
+        return result;
+    }
+
+    private static List<Node> directDependencies(Node node)
+    {
+        Binding<?> binding = existingBinding(node.injector, node.key);
+        if (binding == null) {
+            return implicitDependencies(node);
+        }
+
+        ImmutableList.Builder<Node> builder = ImmutableList.builder();
+        if (binding instanceof LinkedKeyBinding) {
+            builder.add(new Node(node.injector, ((LinkedKeyBinding<?>) binding).getLinkedKey()));
+        }
+        else if (binding instanceof ProviderKeyBinding) {
+            builder.add(new Node(node.injector, ((ProviderKeyBinding<?>) binding).getProviderKey()));
+        }
+        else if (binding instanceof ExposedBinding) {
+            Injector privateInjector = ((ExposedBinding<?>) binding).getPrivateElements().getInjector();
+            if (privateInjector != null) {
+                builder.add(new Node(privateInjector, node.key));
+            }
+        }
+        else if (binding instanceof ProviderBinding) {
+            // Provider<T> is resolved lazily
+        }
+        else if (binding instanceof HasDependencies) {
+            addDependencies(builder, node.injector, ((HasDependencies) binding).getDependencies());
+        }
+        return builder.build();
+    }
+
+    private static List<Node> implicitDependencies(Node node)
+    {
+        Class<?> type = node.key.getTypeLiteral().getRawType();
+        if (node.key.getAnnotationType() != null || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<Node> builder = ImmutableList.builder();
+        try {
+            addDependencies(builder, node.injector, InjectionPoint.forConstructorOf(node.key.getTypeLiteral()).getDependencies());
+            for (InjectionPoint injectionPoint : InjectionPoint.forInstanceMethodsAndFields(node.key.getTypeLiteral())) {
+                addDependencies(builder, node.injector, injectionPoint.getDependencies());
+            }
+        }
+        catch (ConfigurationException ex) {
+            // not injectable; Guice reports it when the key is provisioned
+        }
+        return builder.build();
+    }
+
+    private static void addDependencies(ImmutableList.Builder<Node> builder, Injector injector, Iterable<Dependency<?>> dependencies)
+    {
+        for (Dependency<?> dependency : dependencies) {
+            Class<?> type = dependency.getKey().getTypeLiteral().getRawType();
+            if (type == com.google.inject.Provider.class || type == javax.inject.Provider.class || type == Injector.class) {
+                continue;
+            }
+            builder.add(new Node(injector, dependency.getKey()));
+        }
+    }
+
+    private static Binding<?> existingBinding(Injector injector, Key<?> key)
+    {
+        try {
+            return injector.getExistingBinding(key);
+        }
+        catch (ConfigurationException ex) {
+            return null;
+        }
+    }
+
+    private static final class Node
+    {
+        private final Injector injector;
+        private final Key<?> key;
+
+        Node(Injector injector, Key<?> key)
+        {
+            this.injector = injector;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Node)) {
+                return false;
+            }
+            Node other = (Node) obj;
+            return injector == other.injector && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(injector) * 31 + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.inject.Key;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Groups managed instances into levels so that an instance is in a higher level than all instances it depends on
+ */
+final class DependencyLevels
+{
+    private DependencyLevels() { }
+
+    /**
+     * @param instances instances in the order of injection. Dependencies of an instance are injected before it.
+     * @param graph dependency graph of the injector, or null if unknown
+     * @return instances grouped by level, lowest level first. Order of instances in a level keeps the order of injection.
+     */
+    static List<List<Object>> of(List<Object> instances, DependencyGraph graph)
+    {
+        int[] levels = new int[instances.size()];
+        int maxLevel = 0;
+
+        if (graph == null) {
+            // without a graph, every instance depends on all instances injected before it
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = i;
+            }
+            maxLevel = levels.length - 1;
+        }
+        else {
+            final ListMultimap<Class<?>, Integer> indexesByType = ArrayListMultimap.create();
+            for (int i = 0; i < instances.size(); i++) {
+                indexesByType.put(instances.get(i).getClass(), i);
+            }
+            Predicate<Key<?>> isManagedType = new Predicate<Key<?>>() {
+                public boolean test(Key<?> key)
+                {
+                    return indexesByType.containsKey(key.getTypeLiteral().getRawType());
+                }
+            };
+
+            for (int i = 0; i < instances.size(); i++) {
+                Class<?> type = instances.get(i).getClass();
+                int level = 0;
+                for (Key<?> dependency : graph.nearestDependencies(Key.get(type), isManagedType)) {
+                    for (int j : indexesByType.get(dependency.getTypeLiteral().getRawType())) {
+                        if (j < i) {  // a dependency is always injected before its dependents
+                            level = Math.max(level, levels[j] + 1);
+                        }
+                    }
+                }
+                levels[i] = level;
+                maxLevel = Math.max(maxLevel, level);
+            }
+        }
+
+        List<List<Object>> grouped = Lists.newArrayList();
+        for (int level = 0; level <= maxLevel; level++) {
+            grouped.add(Lists.newArrayList());
+        }
+        for (int i = 0; i < levels.length; i++) {
+            grouped.get(levels[i]).add(instances.get(i));
+        }
+        ImmutableList.Builder<List<Object>> builder = ImmutableList.builder();
+        for (List<Object> group : grouped) {
+            if (!group.isEmpty()) {
+                builder.add(ImmutableList.copyOf(group));
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.base.Throwables;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps injectors initialized in background, so that a job can take a started injector without waiting
+ * for the bootstrap.
+ *
+ * Each injector is created by a Bootstrap from the factory. When an injector is taken, a new one is initialized
+ * on the executor. Closing or destroying a taken injector destroys it on the executor, and returns immediately.
+ * Failures of PreDestroy methods of such destroys are not thrown but logged with java.util.logging. Use
+ * destroyAsync of the taken injector to receive them.
+ */
+public final class InjectorPool
+        implements AutoCloseable
+{
+    private final Supplier<Bootstrap> bootstrapFactory;
+    private final Executor executor;
+    private final Queue<CompletableFuture<CloseableInjector>> injectors;
+    private boolean closed;
+
+    /**
+     * @param bootstrapFactory factory of Bootstrap that is configured for a job
+     * @param size number of injectors to keep initialized
+     * @param executor executor to initialize and destroy injectors on
+     */
+    public InjectorPool(Supplier<Bootstrap> bootstrapFactory, int size, Executor executor)
+    {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.bootstrapFactory = bootstrapFactory;
+        this.executor = executor;
+        this.injectors = new ArrayDeque<>(size);
+        for (int i = 0; i < size; i++) {
+            injectors.add(initializeAsync());
+        }
+    }
+
+    private CompletableFuture<CloseableInjector> initializeAsync()
+    {
+        return bootstrapFactory.get().initializeCloseableAsync(executor);
+    }
+
+    /**
+     * Takes an initialized injector. Waits for the oldest one if none is initialized yet.
+     * A failure to initialize it is thrown.
+     *
+     * @return the injector that is destroyed in background when it's closed
+     */
+    public CloseableInjector take()
+    {
+        CompletableFuture<CloseableInjector> future;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Injector pool already closed");
+            }
+            future = injectors.remove();
+            injectors.add(initializeAsync());
+        }
+        try {
+            return new PooledInjector(future.join(), executor);
+        }
+        catch (CompletionException ex) {
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw ex;
+        }
+    }
+
+    /**
+     * Destroys injectors that are not taken in background. Injectors being initialized are cancelled.
+     * Failures of the destroys are logged, not thrown.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (CompletableFuture<CloseableInjector> future : injectors) {
+            if (!future.cancel(false)) {
+                future.thenAccept(new Consumer<CloseableInjector>() {
+                    public void accept(CloseableInjector injector)
+                    {
+                        logFailure(injector.destroyAsync(executor));
+                    }
+                });
+            }
+        }
+        injectors.clear();
+    }
+
+    private static void logFailure(CompletableFuture<Void> destroyed)
+    {
+        destroyed.whenComplete(new BiConsumer<Void, Throwable>() {
+            public void accept(Void result, Throwable failure)
+            {
+                if (failure != null) {
+                    Logger.getLogger(InjectorPool.class.getName()).log(Level.WARNING, "Failed to destroy a pooled injector",
+                            failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+                }
+            }
+        });
+    }
+
+    private static class PooledInjector
+            extends InjectorProxy
+            implements CloseableInjector
+    {
+        private final CloseableInjector injector;
+        private final Executor executor;
+        private CompletableFuture<Void> destroyed;
+
+        PooledInjector(CloseableInjector injector, Executor executor)
+        {
+            this.injector = injector;
+            this.executor = executor;
+        }
+
+        @Override
+        protected synchronized Injector injector()
+        {
+            if (destroyed != null) {
+                throw new IllegalStateException("Injector already destroyed");
+            }
+            return injector;
+        }
+
+        @Override
+        public synchronized boolean isDestroyed()
+        {
+            return destroyed != null || injector.isDestroyed();
+        }
+
+        /**
+         * Destroys the injector in background. Failures are logged, not thrown.
+         */
+        @Override
+        public void destroy()
+        {
+            logFailure(destroyAsync(executor));
+        }
+
+        @Override
+        public synchronized CompletableFuture<Void> destroyAsync(Executor executor)
+        {
+            if (destroyed == null) {
+                destroyed = injector.destroyAsync(executor);
+            }
+            return destroyed;
+        }
+
+        @Override
+        public synchronized CompletableFuture<Void> destroyAsync(Executor executor, long timeout, TimeUnit unit)
+        {
+            if (destroyed == null) {
+                destroyed = injector.destroyAsync(executor, timeout, unit);
+            }
+            return destroyed;
+        }
+
+        @Override
+        public <T> CompletableFuture<T> whenReady(Key<T> key)
+        {
+            return injector.whenReady(key);
+        }
+
+        @Override
+        public CompletableFuture<Void> whenStarted()
+        {
+            return injector.whenStarted();
+        }
+
+        /**
+         * Same as destroy(). Failures are logged, not thrown.
+         */
+        @Override
+        public void close()
+        {
+            destroy();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.PrivateElements;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Child injector of lazy modules that is created on the first request for one of its keys
+ */
+final class LazyChildInjector
+{
+    private final List<Element> elements;
+    private final Set<Key<?>> keys;
+    private Injector injector;
+
+    LazyChildInjector(List<Element> elements)
+    {
+        this.elements = ImmutableList.copyOf(elements);
+        ImmutableSet.Builder<Key<?>> keys = ImmutableSet.builder();
+        for (Element element : elements) {
+            if (element instanceof Binding) {
+                keys.add(((Binding<?>) element).getKey());
+            }
+            else if (element instanceof PrivateElements) {
+                keys.addAll(((PrivateElements) element).getExposedKeys());
+            }
+        }
+        this.keys = keys.build();
+    }
+
+    Set<Key<?>> getKeys()
+    {
+        return keys;
+    }
+
+    /**
+     * Creates the child injector at the first call. Instances of the child injector are registered
+     * to the LifeCycleManager of the parent injector when they are injected.
+     */
+    synchronized Injector get(Injector parent)
+    {
+        if (injector == null) {
+            injector = parent.createChildInjector(Elements.getModule(elements));
+        }
+        return injector;
+    }
+}
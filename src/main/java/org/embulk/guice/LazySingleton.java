@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.ScopeAnnotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Scope of a singleton that is constructed and started at the first time it is requested, even in
+ * Stage.PRODUCTION, instead of when the injector is created.
+ *
+ * PostConstruct methods of the instance are called once when the first getInstance, Provider.get or injection
+ * constructs it, and PreDestroy methods are not called if it was never requested. The scope is bound by
+ * {@link LifeCycleModule}. Annotate the class, or bind it with {@code in(LazySingleton.class)}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@ScopeAnnotation
+public @interface LazySingleton
+{
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Service provider of the default executor of life cycle work, loaded by {@link java.util.ServiceLoader}
+ *
+ * Register an implementation in META-INF/services/org.embulk.guice.LifeCycleExecutorFactory to replace
+ * the default executor returned by {@link LifeCycleExecutors#getDefault()}.
+ */
+public interface LifeCycleExecutorFactory
+{
+    /**
+     * Creates the executor. This is called at most once in a class loader, and the executor is shared
+     * by all Bootstraps and never shut down.
+     *
+     * @return executor to run life cycle work on
+     */
+    Executor createExecutor();
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default executor of life cycle work
+ */
+public final class LifeCycleExecutors
+{
+    private LifeCycleExecutors() { }
+
+    private static class Holder
+    {
+        static final Executor DEFAULT = createDefault();
+    }
+
+    /**
+     * Returns the executor created by the first {@link LifeCycleExecutorFactory} found by ServiceLoader.
+     * Without a factory, it runs each task on a new virtual thread on Java 21 or later, and on a bounded
+     * pool of daemon threads on older Java.
+     *
+     * @return shared executor
+     */
+    public static Executor getDefault()
+    {
+        return Holder.DEFAULT;
+    }
+
+    private static Executor createDefault()
+    {
+        Iterator<LifeCycleExecutorFactory> factories =
+            ServiceLoader.load(LifeCycleExecutorFactory.class, LifeCycleExecutors.class.getClassLoader()).iterator();
+        if (factories.hasNext()) {
+            return factories.next().createExecutor();
+        }
+        return DefaultLifeCycleExecutor.create();
+    }
+
+    /**
+     * Creates a pool of daemon threads sized for blocking life cycle methods. Idle threads exit after a minute.
+     */
+    static ExecutorService newBoundedPool()
+    {
+        int threads = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("life-cycle-%d").setDaemon(true).build());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -16,6 +16,14 @@
 package org.embulk.guice;
 
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public interface LifeCycleInjector
         extends Injector
@@ -23,4 +31,114 @@ public interface LifeCycleInjector
     boolean isDestroyed();
 
     void destroy() throws Exception;
+
+    /**
+     * Creates a child injector that has its own life cycle. Destroying the child calls PreDestroy methods
+     * of instances constructed by the child, and destroying this injector destroys live children first.
+     * Injectors created by Bootstrap give the child the listeners and options of their own life cycle.
+     *
+     * @param modules modules of the child injector
+     * @return the started child injector
+     * @see Bootstrap#initializeChild(LifeCycleInjector)
+     */
+    default CloseableInjector createChildLifeCycleInjector(Module... modules)
+    {
+        return createChildLifeCycleInjector(Arrays.asList(modules));
+    }
+
+    /**
+     * Creates a child injector that has its own life cycle.
+     *
+     * @param modules modules of the child injector
+     * @return the started child injector
+     * @see #createChildLifeCycleInjector(Module...)
+     */
+    default CloseableInjector createChildLifeCycleInjector(Iterable<? extends Module> modules)
+    {
+        return new Bootstrap(modules).initializeChild(this);
+    }
+
+    /**
+     * Calls {@link #destroy()} on the executor.
+     *
+     * @param executor executor to destroy instances on
+     * @return the future completed when instances are destroyed
+     */
+    default CompletableFuture<Void> destroyAsync(Executor executor)
+    {
+        return CompletableFuture.runAsync(new Runnable() {
+            public void run()
+            {
+                try {
+                    destroy();
+                }
+                catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Destroys instances on the executor, and skips instances that remain after the timeout. The future
+     * completes exceptionally with a TimeoutException listing the skipped instances in that case.
+     *
+     * Injectors created by Bootstrap implement it with {@link LifeCycleManager#destroy(long, TimeUnit)}.
+     * Other implementations throw UnsupportedOperationException unless they override it, because the
+     * destroy can't be bounded through {@link #destroy()}.
+     *
+     * @param executor executor to destroy instances on
+     * @param timeout time to destroy instances within
+     * @param unit unit of the timeout
+     * @return the future completed when instances are destroyed or skipped
+     * @throws UnsupportedOperationException if the implementation doesn't support bounded destroy
+     */
+    default CompletableFuture<Void> destroyAsync(Executor executor, long timeout, TimeUnit unit)
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " doesn't support destroyAsync with a timeout."
+                + " Override destroyAsync(Executor, long, TimeUnit) to bound the destroy.");
+    }
+
+    /**
+     * Returns a future completed when the instance of the key and everything it depends on are
+     * constructed and post-constructed.
+     *
+     * @param key the key of the instance
+     * @param <T> type of the instance
+     * @return the future of the instance
+     */
+    default <T> CompletableFuture<T> whenReady(Key<T> key)
+    {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            future.complete(getInstance(key));
+        }
+        catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Returns a future completed when the instance of the type and everything it depends on are
+     * constructed and post-constructed.
+     *
+     * @param type the type of the instance
+     * @param <T> type of the instance
+     * @return the future of the instance
+     */
+    default <T> CompletableFuture<T> whenReady(Class<T> type)
+    {
+        return whenReady(Key.get(type));
+    }
+
+    /**
+     * Returns a future completed when all singletons are instantiated and the life cycle is started.
+     *
+     * @return the future
+     */
+    default CompletableFuture<Void> whenStarted()
+    {
+        return CompletableFuture.completedFuture(null);
+    }
 }
@@ -15,7 +15,21 @@
  */
 package org.embulk.guice;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Binding;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 class LifeCycleInjectorProxy
         extends InjectorProxy
@@ -23,11 +37,35 @@ class LifeCycleInjectorProxy
 {
     private final Injector injector;
     private final LifeCycleManager lifeCycleManager;
+    private final BackgroundStart backgroundStart;
+    private final Map<Key<?>, LazyChildInjector> lazyChildInjectors;
 
     public LifeCycleInjectorProxy(Injector injector, LifeCycleManager lifeCycleManager)
+    {
+        this(injector, lifeCycleManager, null, ImmutableList.<LazyChildInjector>of());
+    }
+
+    LifeCycleInjectorProxy(Injector injector, LifeCycleManager lifeCycleManager, BackgroundStart backgroundStart,
+            List<LazyChildInjector> lazyChildInjectors)
     {
         this.injector = injector;
         this.lifeCycleManager = lifeCycleManager;
+        this.backgroundStart = backgroundStart;
+        ImmutableMap.Builder<Key<?>, LazyChildInjector> builder = ImmutableMap.builder();
+        for (LazyChildInjector lazy : lazyChildInjectors) {
+            for (Key<?> key : lazy.getKeys()) {
+                builder.put(key, lazy);
+            }
+        }
+        this.lazyChildInjectors = builder.build();
+    }
+
+    /**
+     * @return the manager of instances of this injector, which is not bound in child injectors
+     */
+    LifeCycleManager getLifeCycleManager()
+    {
+        return lifeCycleManager;
     }
 
     @Override
@@ -39,6 +77,75 @@ class LifeCycleInjectorProxy
         return injector;
     }
 
+    private Injector injectorOf(Key<?> key)
+    {
+        if (lazyChildInjectors.isEmpty()) {
+            return injector();
+        }
+        LazyChildInjector lazy = lazyChildInjectors.get(key);
+        if (lazy == null) {
+            return injector();
+        }
+        return lazy.get(injector());
+    }
+
+    @Override
+    public <T> Binding<T> getBinding(Key<T> key)
+    {
+        return injectorOf(key).getBinding(key);
+    }
+
+    @Override
+    public <T> Binding<T> getBinding(Class<T> type)
+    {
+        if (lazyChildInjectors.isEmpty()) {
+            return injector().getBinding(type);
+        }
+        return getBinding(Key.get(type));
+    }
+
+    @Override
+    public <T> Binding<T> getExistingBinding(Key<T> key)
+    {
+        return injectorOf(key).getExistingBinding(key);
+    }
+
+    @Override
+    public <T> Provider<T> getProvider(Key<T> key)
+    {
+        return injectorOf(key).getProvider(key);
+    }
+
+    @Override
+    public <T> Provider<T> getProvider(Class<T> type)
+    {
+        if (lazyChildInjectors.isEmpty()) {
+            return injector().getProvider(type);
+        }
+        return getProvider(Key.get(type));
+    }
+
+    @Override
+    public <T> T getInstance(Key<T> key)
+    {
+        return injectorOf(key).getInstance(key);
+    }
+
+    @Override
+    public <T> T getInstance(Class<T> type)
+    {
+        if (lazyChildInjectors.isEmpty()) {
+            return injector().getInstance(type);  // no Key to look up on the fast path
+        }
+        return getInstance(Key.get(type));
+    }
+
+    @Override
+    public CloseableInjector createChildLifeCycleInjector(Iterable<? extends Module> modules)
+    {
+        return new Bootstrap(modules).inheritLifeCycle(lifeCycleManager).initializeChild(this);
+    }
+
     @Override
     public synchronized boolean isDestroyed()
     {
@@ -48,9 +155,72 @@ class LifeCycleInjectorProxy
     @Override
     public synchronized void destroy() throws Exception
     {
+        awaitBackgroundStart();
         lifeCycleManager.destroy();  // LifeCycleManager.destroy is reentrant
     }
 
+    @Override
+    public CompletableFuture<Void> destroyAsync(Executor executor, long timeout, TimeUnit unit)
+    {
+        final long timeoutNanos = unit.toNanos(timeout);
+        final long startNanos = System.nanoTime();
+        return CompletableFuture.runAsync(new Runnable() {
+            public void run()
+            {
+                try {
+                    synchronized (LifeCycleInjectorProxy.this) {
+                        awaitBackgroundStart();
+                        long remainingNanos = timeoutNanos - (System.nanoTime() - startNanos);
+                        lifeCycleManager.destroy(remainingNanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+                catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }, executor);
+    }
+
+    private void awaitBackgroundStart()
+    {
+        if (backgroundStart != null) {
+            try {
+                backgroundStart.whenStarted().join();  // destroy what the background start has started
+            }
+            catch (RuntimeException ex) {
+                // failure of the start is reported through whenStarted
+            }
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<T> whenReady(final Key<T> key)
+    {
+        if (backgroundStart == null) {
+            return CloseableInjector.super.whenReady(key);
+        }
+        injector();  // throws if destroyed
+        if (lazyChildInjectors.containsKey(key)) {
+            // lazy modules are built after the life cycle of the parent started
+            return backgroundStart.whenStarted().thenApply(new Function<Void, T>() {
+                public T apply(Void ignored)
+                {
+                    return getInstance(key);
+                }
+            });
+        }
+        return backgroundStart.whenReady(key);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenStarted()
+    {
+        if (backgroundStart == null) {
+            return CloseableInjector.super.whenStarted();
+        }
+        return backgroundStart.whenStarted();
+    }
+
     @Override
     public void close() throws Exception
     {
@@ -16,6 +16,7 @@
 package org.embulk.guice;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 public interface LifeCycleListener
 {
@@ -68,4 +69,27 @@ public interface LifeCycleListener
      * @param preDestroyMethod the Method object of the PreDestroy method
      */
     void preDestroyingInstance(Object object, Method preDestroyMethod);
+
+    /**
+     * Called when a pre stop method of an object is called, before any pre destruction method
+     *
+     * @param object the object that has PreStop method
+     * @param preStopMethod the Method object of the PreStop method
+     */
+    default void preStoppingInstance(Object object, Method preStopMethod)
+    {
+    }
+
+    /**
+     * Called from the thread of the startup watchdog when a post construction method runs longer than
+     * the budget set by {@link Bootstrap#watchStartup(long, long, TimeUnit, boolean)}
+     *
+     * @param object the object that has PostConstruct method
+     * @param postConstructMethod the Method object of the PostConstruct method
+     * @param elapsedMillis milliseconds since the method was called
+     * @param stackTrace stack trace of the thread running the method
+     */
+    default void postConstructTimedOut(Object object, Method postConstructMethod, long elapsedMillis, StackTraceElement[] stackTrace)
+    {
+    }
 }
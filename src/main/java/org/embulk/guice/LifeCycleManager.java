@@ -18,27 +18,75 @@
  */
 package org.embulk.guice;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Manages PostConstruct and PreDestroy life cycles
  */
 public final class LifeCycleManager
 {
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
+
     private final AtomicReference<State> state = new AtomicReference<State>(State.LATENT);
     private final Queue<Object> managedInstances = new ConcurrentLinkedQueue<Object>();
+    private final List<Object> deferredInstances = Lists.newArrayList();
     private final LifeCycleMethodsMap methodsMap;
     private final List<LifeCycleListener> listeners;
+    private final LifeCycleOptions options;
+    private final Provider<Injector> injectorProvider;
+    private final Collection<ExecutorService> executorServices;
+    private volatile StartupWatchdog watchdog;  // null after the startup
+    private final ReferenceQueue<Object> unreachableInstances = new ReferenceQueue<Object>();
+    private final Set<CleanupReference> weakInstances = Sets.newConcurrentHashSet();
+    private final List<LifeCycleManager> children = Lists.newArrayList();
+    private volatile LifeCycleManager parent;
+    private final AtomicBoolean preStopped = new AtomicBoolean(false);
+    private volatile Thread shutdownHook;  // null if not added or after destroy
+
+    private static final class CleanupReference
+            extends PhantomReference<Object>
+    {
+        private final Runnable action;
+
+        CleanupReference(Object instance, Runnable action, ReferenceQueue<Object> queue)
+        {
+            super(instance, queue);
+            this.action = action;
+        }
+    }
 
     private enum State
     {
@@ -57,9 +105,29 @@ public final class LifeCycleManager
      */
     public LifeCycleManager(List<Object> managedInstances, LifeCycleMethodsMap methodsMap, List<LifeCycleListener> listeners)
             throws Exception
+    {
+        this(managedInstances, methodsMap, listeners, new LifeCycleOptions(), null, ImmutableList.<ExecutorService>of());
+    }
+
+    /**
+     * @param managedInstances list of objects that have life cycle annotations
+     * @param methodsMap existing or new methods map
+     * @param listeners listeners called when state changes
+     * @param options options of the life cycle
+     * @param injectorProvider provider of the injector to analyze dependencies between instances, or null
+     * @param executorServices live view of ExecutorServices to shut down after PreDestroy methods
+     * @throws Exception exceptions starting instances (depending on mode)
+     */
+    LifeCycleManager(List<Object> managedInstances, LifeCycleMethodsMap methodsMap, List<LifeCycleListener> listeners,
+            LifeCycleOptions options, Provider<Injector> injectorProvider, Collection<ExecutorService> executorServices)
+            throws Exception
     {
         this.methodsMap = (methodsMap != null) ? methodsMap : new LifeCycleMethodsMap();
         this.listeners = listeners;
+        this.options = options;
+        this.injectorProvider = injectorProvider;
+        this.executorServices = executorServices;
+        this.watchdog = options.newStartupWatchdog(listeners);
         for (Object instance : managedInstances) {
             addInstance(instance);
         }
@@ -72,24 +140,58 @@ public final class LifeCycleManager
      */
     public int size()
     {
-        return managedInstances.size();
+        synchronized (deferredInstances) {
+            return managedInstances.size() + deferredInstances.size() + weakInstances.size();
+        }
+    }
+
+    /**
+     * Returns true if some PostConstruct methods are deferred and not called yet
+     *
+     * @return true if start is pending
+     */
+    boolean hasPendingPostConstruct()
+    {
+        synchronized (deferredInstances) {
+            return !deferredInstances.isEmpty() || state.get() == State.STARTING;
+        }
     }
 
     /**
      * Start the life cycle - all instances will have their {@link javax.annotation.PostConstruct} method(s) called
+     *
+     * Deferred PostConstruct methods are called here phase by phase in ascending order of {@link LifeCyclePhase}.
+     * In a phase, an instance is started after all instances it depends on, and instances that don't depend
+     * on each other are started concurrently if the life cycle has an executor.
+     *
+     * @throws IllegalStateException if the life cycle is already started, or destroyed before it's started
      */
     public void start()
     {
-        if (!state.compareAndSet(State.LATENT, State.STARTING)) {
-            throw new IllegalStateException("System already starting");
+        List<Object> deferred;
+        synchronized (deferredInstances) {
+            if (!state.compareAndSet(State.LATENT, State.STARTING)) {
+                throw new IllegalStateException("System already starting");
+            }
+            deferred = ImmutableList.copyOf(deferredInstances);
+            deferredInstances.clear();
         }
         for (LifeCycleListener listener : listeners) {
             listener.startingLifeCycle();
         }
 
+        try {
+            if (!deferred.isEmpty()) {
+                startDeferredInstances(deferred);
+            }
+        }
+        finally {
+            closeWatchdog();
+        }
+
         for (Object obj : managedInstances) {
             LifeCycleMethods methods = methodsMap.get(obj.getClass());
-            if (!methods.hasFor(PreDestroy.class)) {
+            if (!hasStopMethods(methods)) {
                 managedInstances.remove(obj);   // remove reference to instances that aren't needed anymore
             }
         }
@@ -101,11 +203,11 @@ public final class LifeCycleManager
     }
 
     /**
-     * Add a shutdown hook that calls {@link destroy} method
+     * Add a shutdown hook that calls {@link destroy} method. The hook is removed when the life cycle is destroyed.
      */
     public void destroyOnShutdownHook()
     {
-        Runtime.getRuntime().addShutdownHook(new Thread()
+        Thread hook = new Thread()
         {
             @Override
             public void run()
@@ -118,44 +220,387 @@ public final class LifeCycleManager
                     e.printStackTrace(System.err);
                 }
             }
-        });
+        };
+        shutdownHook = hook;
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    List<LifeCycleListener> getListeners()
+    {
+        return listeners;
+    }
+
+    LifeCycleOptions getOptions()
+    {
+        return options;
+    }
+
+    boolean hasShutdownHook()
+    {
+        return shutdownHook != null;
+    }
+
+    private void removeShutdownHook()
+    {
+        Thread hook = shutdownHook;
+        shutdownHook = null;
+        if (hook != null && hook != Thread.currentThread()) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            }
+            catch (IllegalStateException ex) {
+                // the JVM is already shutting down
+            }
+        }
     }
 
     /**
      * Stop the life cycle - all instances will have their {@link javax.annotation.PreDestroy} method(s) called
      *
+     * If PreDestroy methods are called concurrently, instances are destroyed level by level so that an instance
+     * is destroyed before all instances it depends on. All instances are destroyed even if some of them fail,
+     * and the first failure is thrown with the others suppressed.
+     *
+     * If the life cycle is not started yet, instances already started are destroyed and deferred instances
+     * are never started. {@link #start()} then throws IllegalStateException.
+     *
+     * {@link PreStop} methods of all instances are called concurrently before any PreDestroy method.
+     *
+     * Live child injectors created by {@link Bootstrap#initializeChild(LifeCycleInjector)} are destroyed first,
+     * in the reverse order of creation.
+     *
+     * ExecutorServices managed through {@link Bootstrap#shutdownExecutorServices(long, TimeUnit)} are shut down
+     * after all PreDestroy methods are called.
+     *
+     * Timeouts set by {@link Bootstrap#destroyTimeout(long, long, TimeUnit)} apply as described in
+     * {@link #destroy(long, TimeUnit)}.
+     *
      * @throws Exception errors
      */
     public void destroy()
             throws Exception
+    {
+        long timeoutNanos = options.getDestroyTimeoutNanos();
+        destroy(timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : NO_DEADLINE, options.getPreDestroyExecutor());
+    }
+
+    /**
+     * Stop the life cycle as {@link #destroy()} does, but within the timeout. PreDestroy methods still running
+     * when the timeout expires, or longer than the timeout of each instance set by
+     * {@link Bootstrap#destroyTimeout(long, long, TimeUnit)}, are abandoned: they keep running in their threads,
+     * and the other instances are destroyed. Instances that remain after the timeout are skipped. After the
+     * other instances are destroyed, a TimeoutException lists the skipped and abandoned instances, and has
+     * stack traces of the abandoned methods as suppressed exceptions.
+     *
+     * With a timeout, PreDestroy methods run on threads other than the caller's even if they are not called
+     * concurrently.
+     *
+     * @param timeout time to destroy instances within
+     * @param unit unit of the timeout
+     * @throws Exception errors
+     */
+    public void destroy(long timeout, TimeUnit unit)
+            throws Exception
+    {
+        destroy(System.nanoTime() + unit.toNanos(timeout), options.getPreDestroyExecutor());
+    }
+
+    /**
+     * Destroys instances started so far after a failure of starting, concurrently if the life cycle has
+     * an executor. Failures of the destroy are added to the failure as suppressed exceptions.
+     *
+     * @param failure failure of starting
+     */
+    void rollback(Throwable failure)
+    {
+        Executor executor = (options.getPreDestroyExecutor() != null) ? options.getPreDestroyExecutor() : options.getPostConstructExecutor();
+        try {
+            destroy(NO_DEADLINE, executor);
+        }
+        catch (Exception ex) {
+            failure.addSuppressed(ex);
+        }
+    }
+
+    private void destroy(long deadlineNanos, Executor preDestroyExecutor)
+            throws Exception
     {
         if (!state.compareAndSet(State.STARTED, State.STOPPING)) {
-            return;
+            synchronized (deferredInstances) {
+                if (!state.compareAndSet(State.LATENT, State.STOPPING)) {
+                    return;
+                }
+                deferredInstances.clear();  // destroyed before start; deferred instances were never started
+            }
         }
+        removeShutdownHook();  // so that the hook doesn't keep the destroyed instances reachable
+        closeWatchdog();
         for (LifeCycleListener listener : listeners) {
             listener.stoppingLifeCycle();
         }
 
-        List<Object> reversedInstances = Lists.newArrayList(managedInstances);
-        Collections.reverse(reversedInstances);
+        // stop intake of all instances, including those of children, before any of them is destroyed
+        Throwable failure = preStopInstances(deadlineNanos, preDestroyExecutor);
 
-        for (Object obj : reversedInstances) {
-            for (LifeCycleListener listener : listeners) {
-                listener.stoppingInstance(obj);
+        // children depend on instances of this manager
+        failure = destroyChildren(deadlineNanos, failure);
+
+        // WeaklyManaged instances are unscoped instances that usually depend on the others
+        failure = cleanWeakInstances(failure);
+        BoundedDestroy bounded = null;
+        if (deadlineNanos != NO_DEADLINE || options.getPreDestroyTimeoutNanos() > 0) {
+            bounded = new BoundedDestroy(new BoundedDestroy.Stopper() {
+                public void stop(Object obj)
+                        throws Exception
+                {
+                    stopInstance(obj);
+                }
+            }, options.getPreDestroyTimeoutNanos(), deadlineNanos, deadlineNanos != NO_DEADLINE);
+        }
+        try {
+            for (List<Object> phase : groupByPhase(managedInstances).descendingMap().values()) {
+                if (preDestroyExecutor != null) {
+                    failure = stopInstancesConcurrently(phase, failure, preDestroyExecutor, bounded);
+                }
+                else {
+                    List<Object> reversedInstances = Lists.newArrayList(phase);
+                    Collections.reverse(reversedInstances);
+
+                    for (Object obj : reversedInstances) {
+                        if (bounded != null) {
+                            failure = bounded.stop(ImmutableList.of(obj), null, failure);
+                        }
+                        else {
+                            try {
+                                stopInstance(obj);
+                            }
+                            catch (Exception | Error ex) {
+                                failure = addFailure(failure, ex);
+                            }
+                        }
+                    }
+                }
             }
-            LifeCycleMethods methods = methodsMap.get(obj.getClass());
-            for (Method preDestroy : methods.methodsFor(PreDestroy.class)) {
-                for (LifeCycleListener listener : listeners) {
-                    listener.preDestroyingInstance(obj, preDestroy);
+            shutdownExecutorServices(deadlineNanos);
+            if (bounded != null) {
+                TimeoutException timeout = bounded.report();
+                if (timeout != null) {
+                    if (failure == null) {
+                        failure = timeout;
+                    }
+                    else {
+                        failure.addSuppressed(timeout);
+                    }
                 }
-                preDestroy.invoke(obj);
+            }
+        }
+        finally {
+            if (bounded != null) {
+                bounded.close();
             }
         }
 
         state.set(State.STOPPED);
+        LifeCycleManager parentManager = parent;
+        if (parentManager != null) {
+            parentManager.removeChild(this);
+        }
         for (LifeCycleListener listener : listeners) {
             listener.stoppedLifeCycle();
         }
+
+        if (failure != null) {
+            Throwables.throwIfInstanceOf(failure, Exception.class);
+            Throwables.throwIfUnchecked(failure);
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Calls PreStop methods of all managed instances of this manager and live children, recursively,
+     * concurrently on the executor or the default life cycle executor. Timeouts of destroy apply to them
+     * as to PreDestroy methods. Children don't call PreStop methods again when they are destroyed.
+     *
+     * @return failures of PreStop methods
+     */
+    private Throwable preStopInstances(long deadlineNanos, Executor executor)
+    {
+        final Map<Object, LifeCycleManager> owners = Maps.newIdentityHashMap();
+        List<Object> instances = Lists.newArrayList();
+        for (LifeCycleManager manager : claimPreStop(Lists.<LifeCycleManager>newArrayList())) {
+            for (Object obj : manager.managedInstances) {
+                if (manager.methodsMap.get(obj.getClass()).hasFor(PreStop.class) && !owners.containsKey(obj)) {
+                    owners.put(obj, manager);
+                    instances.add(obj);
+                }
+            }
+        }
+        if (instances.isEmpty()) {
+            return null;
+        }
+        if (executor == null) {
+            executor = LifeCycleExecutors.getDefault();
+        }
+
+        if (deadlineNanos != NO_DEADLINE || options.getPreDestroyTimeoutNanos() > 0) {
+            BoundedDestroy bounded = new BoundedDestroy(new BoundedDestroy.Stopper() {
+                public void stop(Object obj)
+                        throws Exception
+                {
+                    owners.get(obj).preStopInstance(obj);
+                }
+            }, options.getPreDestroyTimeoutNanos(), deadlineNanos, deadlineNanos != NO_DEADLINE);
+            try {
+                Throwable failure = bounded.stop(instances, executor, null);
+                TimeoutException timeout = bounded.report();
+                return (timeout != null) ? addFailure(failure, timeout) : failure;
+            }
+            finally {
+                bounded.close();
+            }
+        }
+
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
+        for (final Object obj : instances) {
+            futures.add(CompletableFuture.runAsync(new Runnable() {
+                public void run()
+                {
+                    try {
+                        owners.get(obj).preStopInstance(obj);
+                    }
+                    catch (IllegalAccessException | InvocationTargetException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }
+            }, executor));
+        }
+        return collectFailures(futures, null);
+    }
+
+    /**
+     * Collects this manager and live children, recursively, whose PreStop methods are not called yet
+     */
+    private List<LifeCycleManager> claimPreStop(List<LifeCycleManager> managers)
+    {
+        if (preStopped.compareAndSet(false, true)) {
+            managers.add(this);
+        }
+        List<LifeCycleManager> live;
+        synchronized (children) {
+            live = ImmutableList.copyOf(children);
+        }
+        for (LifeCycleManager child : live) {
+            child.claimPreStop(managers);
+        }
+        return managers;
+    }
+
+    /**
+     * Registers the manager of a child injector to be destroyed before instances of this manager
+     *
+     * @param child manager of the child injector
+     * @throws IllegalStateException if this manager is already destroyed
+     */
+    void addChild(LifeCycleManager child)
+    {
+        synchronized (children) {
+            if (isDestroyed()) {
+                throw new IllegalStateException("System already stopped");
+            }
+            child.parent = this;
+            children.add(child);
+        }
+    }
+
+    private void removeChild(LifeCycleManager child)
+    {
+        synchronized (children) {
+            children.remove(child);
+        }
+    }
+
+    /**
+     * Destroys live children in the reverse order of creation
+     *
+     * @return failure with failures of the children added as suppressed exceptions
+     */
+    private Throwable destroyChildren(long deadlineNanos, Throwable failure)
+    {
+        List<LifeCycleManager> live;
+        synchronized (children) {
+            live = ImmutableList.copyOf(children).reverse();
+            children.clear();
+        }
+        for (LifeCycleManager child : live) {
+            try {
+                if (deadlineNanos == NO_DEADLINE) {
+                    child.destroy();
+                }
+                else {
+                    child.destroy(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            }
+            catch (Exception ex) {
+                failure = addFailure(failure, ex);
+            }
+        }
+        return failure;
+    }
+
+    private void shutdownExecutorServices(long deadlineNanos)
+    {
+        List<ExecutorService> services = ImmutableList.copyOf(executorServices);
+        if (services.isEmpty()) {
+            return;
+        }
+        for (ExecutorService service : services) {
+            service.shutdown();
+        }
+
+        // all services drain concurrently, and are awaited against one deadline
+        long awaitDeadlineNanos = System.nanoTime() + options.getExecutorServiceTimeoutNanos();
+        if (deadlineNanos != NO_DEADLINE && deadlineNanos - awaitDeadlineNanos < 0) {
+            awaitDeadlineNanos = deadlineNanos;
+        }
+        try {
+            for (ExecutorService service : services) {
+                service.awaitTermination(Math.max(0, awaitDeadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (ExecutorService service : services) {
+            if (!service.isTerminated()) {
+                service.shutdownNow();
+            }
+        }
+    }
+
+    private Throwable stopInstancesConcurrently(List<Object> instances, Throwable failure, Executor executor, BoundedDestroy bounded)
+    {
+        for (List<Object> level : Lists.reverse(DependencyLevels.of(instances, dependencyGraph()))) {
+            if (bounded != null) {
+                failure = bounded.stop(level, executor, failure);
+                continue;
+            }
+            List<CompletableFuture<Void>> futures = Lists.newArrayList();
+            for (final Object obj : level) {
+                futures.add(CompletableFuture.runAsync(new Runnable() {
+                    public void run()
+                    {
+                        try {
+                            stopInstance(obj);
+                        }
+                        catch (IllegalAccessException | InvocationTargetException ex) {
+                            throw new CompletionException(ex);
+                        }
+                    }
+                }, executor));
+            }
+            failure = collectFailures(futures, failure);
+        }
+        return failure;
     }
 
     /**
@@ -182,15 +627,245 @@ public final class LifeCycleManager
             throw new IllegalStateException("System already stopped");
         }
         else {
+            if (options.getPostConstructExecutor() != null || methodsMap.get(instance.getClass()).hasPhase()) {
+                synchronized (deferredInstances) {
+                    if (state.get() == State.LATENT) {
+                        deferredInstances.add(instance);
+                        return;
+                    }
+                }
+            }
             startInstance(instance);
-            if (methodsMap.get(instance.getClass()).hasFor(PreDestroy.class)) {
-                managedInstances.add(instance);
+            register(instance);
+            cleanUnreachableInstances();
+        }
+    }
+
+    /**
+     * Registers a started instance to be destroyed
+     */
+    private void register(Object instance)
+    {
+        if (instance instanceof WeaklyManaged) {
+            weakInstances.add(new CleanupReference(instance, ((WeaklyManaged) instance).cleanupAction(), unreachableInstances));
+        }
+        else if (hasStopMethods(methodsMap.get(instance.getClass()))) {
+            managedInstances.add(instance);
+        }
+    }
+
+    /**
+     * Runs cleanup actions of WeaklyManaged instances that became unreachable
+     */
+    private void cleanUnreachableInstances()
+    {
+        Reference<?> ref;
+        while ((ref = unreachableInstances.poll()) != null) {
+            CleanupReference cleanup = (CleanupReference) ref;
+            if (weakInstances.remove(cleanup)) {
+                try {
+                    cleanup.action.run();
+                }
+                catch (RuntimeException ex) {
+                    Logger.getLogger(LifeCycleManager.class.getName()).log(Level.WARNING, "Cleanup action of an unreachable instance failed", ex);
+                }
             }
         }
     }
 
-    private void startInstance(Object obj)
+    /**
+     * Runs cleanup actions of all WeaklyManaged instances
+     *
+     * @return failure with failures of the actions added as suppressed exceptions
+     */
+    private Throwable cleanWeakInstances(Throwable failure)
+    {
+        cleanUnreachableInstances();
+        for (CleanupReference cleanup : ImmutableList.copyOf(weakInstances)) {
+            if (weakInstances.remove(cleanup)) {
+                try {
+                    cleanup.action.run();
+                }
+                catch (RuntimeException ex) {
+                    failure = addFailure(failure, ex);
+                }
+                cleanup.clear();
+            }
+        }
+        return failure;
+    }
+
+    private void startDeferredInstances(List<Object> deferred)
+    {
+        final Set<Object> started = Sets.newConcurrentHashSet();
+        final TaskAborter aborter = options.isFailFast() ? new TaskAborter() : null;
+        Executor executor = (options.getPostConstructExecutor() != null) ? options.getPostConstructExecutor() : MoreExecutors.directExecutor();
+        Throwable failure = null;
+        for (List<Object> level : levelsByPhase(deferred)) {
+            List<CompletableFuture<Void>> futures = Lists.newArrayList();
+            for (final Object obj : level) {
+                futures.add(CompletableFuture.runAsync(new Runnable() {
+                    public void run()
+                    {
+                        if (aborter != null && !aborter.enter()) {
+                            return;  // aborted by a failure of another instance
+                        }
+                        try {
+                            startInstance(obj);
+                        }
+                        catch (IllegalAccessException | InvocationTargetException | TimeoutException ex) {
+                            abort(aborter);
+                            throw new CompletionException(ex);
+                        }
+                        catch (RuntimeException | Error ex) {
+                            abort(aborter);
+                            throw ex;
+                        }
+                        finally {
+                            if (aborter != null) {
+                                aborter.exit();
+                            }
+                        }
+                        started.add(obj);
+                    }
+                }, executor));
+            }
+            failure = collectFailures(futures, null);
+            if (failure != null) {
+                break;
+            }
+        }
+
+        // register in the order of injection so that destroy() calls PreDestroy methods in the reverse order
+        for (Object obj : deferred) {
+            if (started.contains(obj)) {
+                register(obj);
+            }
+        }
+
+        if (failure != null) {
+            state.set(State.STARTED);
+            if (options.isFailFast()) {
+                rollback(failure);
+            }
+            Throwables.throwIfUnchecked(failure);
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Stops watching the startup, when the injector fails to be created and the life cycle never starts.
+     */
+    void closeWatchdog()
+    {
+        StartupWatchdog closing = watchdog;
+        if (closing != null) {
+            watchdog = null;  // instances started later are not watched
+            closing.close();
+        }
+    }
+
+    private static void abort(TaskAborter aborter)
+    {
+        if (aborter != null) {
+            aborter.abort();
+        }
+    }
+
+    private List<List<Object>> levelsByPhase(List<Object> instances)
+    {
+        DependencyGraph graph = dependencyGraph();
+        List<List<Object>> levels = Lists.newArrayList();
+        for (List<Object> phase : groupByPhase(instances).values()) {
+            levels.addAll(DependencyLevels.of(phase, graph));
+        }
+        return levels;
+    }
+
+    private TreeMap<Integer, List<Object>> groupByPhase(Iterable<Object> instances)
+    {
+        TreeMap<Integer, List<Object>> phases = new TreeMap<Integer, List<Object>>();
+        for (Object obj : instances) {
+            int phase = methodsMap.get(obj.getClass()).phase();
+            List<Object> list = phases.get(phase);
+            if (list == null) {
+                list = Lists.newArrayList();
+                phases.put(phase, list);
+            }
+            list.add(obj);
+        }
+        return phases;
+    }
+
+    private static boolean hasStopMethods(LifeCycleMethods methods)
+    {
+        return methods.hasFor(PreDestroy.class) || methods.hasFor(PreStop.class);
+    }
+
+    private static Throwable addFailure(Throwable first, Throwable failure)
+    {
+        if (first == null) {
+            return failure;
+        }
+        first.addSuppressed(failure);
+        return first;
+    }
+
+    private static Throwable collectFailures(List<CompletableFuture<Void>> futures, Throwable first)
+    {
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            }
+            catch (CompletionException ex) {
+                Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+                if (cause instanceof InvocationTargetException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                if (first == null) {
+                    first = cause;
+                }
+                else {
+                    first.addSuppressed(cause);
+                }
+            }
+        }
+        return first;
+    }
+
+    private DependencyGraph dependencyGraph()
+    {
+        return (injectorProvider != null) ? new DependencyGraph(injectorProvider.get()) : null;
+    }
+
+    private void stopInstance(Object obj)
+            throws IllegalAccessException, InvocationTargetException
+    {
+        for (LifeCycleListener listener : listeners) {
+            listener.stoppingInstance(obj);
+        }
+        LifeCycleMethods methods = methodsMap.get(obj.getClass());
+        for (Method preDestroy : methods.methodsFor(PreDestroy.class)) {
+            for (LifeCycleListener listener : listeners) {
+                listener.preDestroyingInstance(obj, preDestroy);
+            }
+            preDestroy.invoke(obj);
+        }
+    }
+
+    private void preStopInstance(Object obj)
             throws IllegalAccessException, InvocationTargetException
+    {
+        for (Method preStop : methodsMap.get(obj.getClass()).methodsFor(PreStop.class)) {
+            for (LifeCycleListener listener : listeners) {
+                listener.preStoppingInstance(obj, preStop);
+            }
+            preStop.invoke(obj);
+        }
+    }
+
+    private void startInstance(Object obj)
+            throws IllegalAccessException, InvocationTargetException, TimeoutException
     {
         for (LifeCycleListener listener : listeners) {
             listener.startingInstance(obj);
@@ -200,7 +875,13 @@ public final class LifeCycleManager
             for (LifeCycleListener listener : listeners) {
                 listener.postConstructingInstance(obj, postConstruct);
             }
-            postConstruct.invoke(obj);
+            StartupWatchdog currentWatchdog = watchdog;
+            if (currentWatchdog != null) {
+                currentWatchdog.invoke(obj, postConstruct);
+            }
+            else {
+                postConstruct.invoke(obj);
+            }
         }
     }
 }
@@ -33,10 +33,26 @@ import java.util.Set;
 class LifeCycleMethods
 {
     private final Multimap<Class<? extends Annotation>, Method> methodMap = ArrayListMultimap.create();
+    private final LifeCyclePhase phase;
 
     LifeCycleMethods(Class<?> clazz)
     {
-        addLifeCycleMethods(clazz, new HashSet<String>(), new HashSet<String>());
+        addLifeCycleMethods(clazz, new HashSet<String>(), new HashSet<String>(), new HashSet<String>());
+        this.phase = clazz.getAnnotation(LifeCyclePhase.class);
+        if (phase != null && phase.value() <= 0) {
+            // instances in phase 0 are started when they are injected, before deferred phases
+            throw new IllegalArgumentException(String.format("@LifeCyclePhase must be positive: %s has %d", clazz.getName(), phase.value()));
+        }
+    }
+
+    boolean hasPhase()
+    {
+        return phase != null;
+    }
+
+    int phase()
+    {
+        return (phase != null) ? phase.value() : 0;
     }
 
     boolean hasFor(Class<? extends Annotation> annotation)
@@ -51,7 +67,7 @@ class LifeCycleMethods
         return (methods != null) ? methods : Lists.<Method>newArrayList();
     }
 
-    private void addLifeCycleMethods(Class<?> clazz, Set<String> usedConstructNames, Set<String> usedDestroyNames)
+    private void addLifeCycleMethods(Class<?> clazz, Set<String> usedConstructNames, Set<String> usedDestroyNames, Set<String> usedStopNames)
     {
         if (clazz == null) {
             return;
@@ -64,11 +80,12 @@ class LifeCycleMethods
 
             processMethod(method, PostConstruct.class, usedConstructNames);
             processMethod(method, PreDestroy.class, usedDestroyNames);
+            processMethod(method, PreStop.class, usedStopNames);
         }
 
-        addLifeCycleMethods(clazz.getSuperclass(), usedConstructNames, usedDestroyNames);
+        addLifeCycleMethods(clazz.getSuperclass(), usedConstructNames, usedDestroyNames, usedStopNames);
         for (Class<?> face : clazz.getInterfaces()) {
-            addLifeCycleMethods(face, usedConstructNames, usedDestroyNames);
+            addLifeCycleMethods(face, usedConstructNames, usedDestroyNames, usedStopNames);
         }
     }
 
@@ -77,7 +94,7 @@ class LifeCycleMethods
         if (method.isAnnotationPresent(annotationClass)) {
             if (!usedSet.contains(method.getName())) {
                 if (method.getParameterTypes().length != 0) {
-                    throw new UnsupportedOperationException(String.format("@PostConstruct/@PreDestroy methods cannot have arguments: %s", method.getDeclaringClass().getName() + "." + method.getName() + "(...)"));
+                    throw new UnsupportedOperationException(String.format("@PostConstruct/@PreDestroy/@PreStop methods cannot have arguments: %s", method.getDeclaringClass().getName() + "." + method.getName() + "(...)"));
                 }
 
                 method.setAccessible(true);
@@ -18,20 +18,22 @@
  */
 package org.embulk.guice;
 
-import com.google.common.collect.Maps;
-
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 class LifeCycleMethodsMap
 {
-    private final Map<Class<?>, LifeCycleMethods> map = Maps.newHashMap();
+    private final ConcurrentMap<Class<?>, LifeCycleMethods> map = new ConcurrentHashMap<Class<?>, LifeCycleMethods>();
 
-    synchronized LifeCycleMethods get(Class<?> clazz)
+    LifeCycleMethods get(Class<?> clazz)
     {
         LifeCycleMethods methods = map.get(clazz);
         if (methods == null) {
             methods = new LifeCycleMethods(clazz);
-            map.put(clazz, methods);
+            LifeCycleMethods existing = map.putIfAbsent(clazz, methods);
+            if (existing != null) {
+                methods = existing;
+            }
         }
         return methods;
     }
@@ -20,19 +20,33 @@ package org.embulk.guice;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 import com.google.inject.Binder;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
+import com.google.inject.Scope;
+import com.google.inject.Scopes;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.name.Names;
 import com.google.inject.spi.InjectionListener;
+import com.google.inject.spi.ProvisionListener;
 import com.google.inject.spi.TypeEncounter;
 import com.google.inject.spi.TypeListener;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static com.google.inject.matcher.Matchers.any;
 
@@ -41,10 +55,41 @@ import static com.google.inject.matcher.Matchers.any;
  */
 public class LifeCycleModule implements Module
 {
+    // Guice instantiates only Scopes.SINGLETON itself eagerly in Stage.PRODUCTION
+    private static final Scope LAZY_SINGLETON = new Scope()
+    {
+        @Override
+        public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped)
+        {
+            return Scopes.SINGLETON.scope(key, unscoped);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "LifeCycleModule.LAZY_SINGLETON";
+        }
+    };
+
+    private static final AtomicLong moduleIds = new AtomicLong();
+
+    /**
+     * Bound in the injector of each LifeCycleModule, so that a parent can find child injectors
+     * that manage their own instances
+     */
+    private static final class LifeCycleMarker
+    {
+    }
+
     private final List<Object> injectedInstances = Lists.newArrayList();
+    private final Set<ExecutorService> executorServices = Sets.newConcurrentHashSet();
     private final LifeCycleMethodsMap lifeCycleMethodsMap = new LifeCycleMethodsMap();
     private final AtomicReference<LifeCycleManager> lifeCycleManagerRef = new AtomicReference<LifeCycleManager>(null);
     private final List<LifeCycleListener> listeners;
+    private final LifeCycleOptions options;
+    private final LifeCycleScope lifeCycleScope;
+    private Provider<Injector> injectorProvider;
+    private volatile boolean failed;
 
     public LifeCycleModule()
     {
@@ -52,43 +97,133 @@ public class LifeCycleModule implements Module
     }
 
     public LifeCycleModule(List<LifeCycleListener> listeners)
+    {
+        this(listeners, new LifeCycleOptions());
+    }
+
+    LifeCycleModule(List<LifeCycleListener> listeners, LifeCycleOptions options)
     {
         this.listeners = listeners;
+        this.options = options;
+        this.lifeCycleScope = new LifeCycleScope(lifeCycleMethodsMap, listeners, new Consumer<Object>()
+        {
+            @Override
+            public void accept(Object obj)
+            {
+                manage(obj);
+            }
+        });
     }
 
     @Override
     public void configure(Binder binder)
+    {
+        binder.bindScope(LazySingleton.class, LAZY_SINGLETON);
+        binder.bindScope(LifeCycleScoped.class, lifeCycleScope);
+        binder.bind(LifeCycleScope.class).toInstance(lifeCycleScope);
+        bindListeners(binder);
+    }
+
+    /**
+     * Returns a module for a child injector that manages instances of the child injector by
+     * {@link #getServerManager()} of this module instead of the manager of the parent injector.
+     * Scopes and the LifeCycleManager are inherited from the parent injector.
+     */
+    Module childModule()
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                bindListeners(binder);
+            }
+        };
+    }
+
+    private void bindListeners(Binder binder)
     {
         binder.disableCircularProxies();
+        injectorProvider = binder.getProvider(Injector.class);
+        binder.bind(Key.get(LifeCycleMarker.class, Names.named(Long.toString(moduleIds.incrementAndGet()))))
+            .toInstance(new LifeCycleMarker());
 
         binder.bindListener(any(), new TypeListener()
         {
             @Override
             public <T> void hear(TypeLiteral<T> type, TypeEncounter<T> encounter)
             {
+                // A child injector also calls listeners of its parent. The instance is managed by the
+                // closest injector that has a LifeCycleModule.
+                final Provider<Injector> encounteringInjector = encounter.getProvider(Injector.class);
+
                 encounter.register(new InjectionListener<T>()
                 {
+                    private volatile Boolean owned;  // resolved at the first injection
+
                     @Override
                     public void afterInjection(T obj)
                     {
-                        if (isLifeCycleClass(obj.getClass())) {
-                            LifeCycleManager lifeCycleManager = lifeCycleManagerRef.get();
-                            if (lifeCycleManager != null) {
-                                try {
-                                    lifeCycleManager.addInstance(obj);
-                                }
-                                catch (Exception e) {
-                                    throw new Error(e);
-                                }
-                            }
-                            else {
-                                injectedInstances.add(obj);
-                            }
+                        Boolean own = owned;
+                        if (own == null) {
+                            own = owns(encounteringInjector.get());
+                            owned = own;
+                        }
+                        if (!own) {
+                            return;  // managed by the LifeCycleModule of a child injector
+                        }
+                        if (failed) {
+                            return;  // fail-fast: instances are not started after a failure
+                        }
+                        if (isLifeCycleClass(obj.getClass()) && !lifeCycleScope.capture(obj)) {
+                            manage(obj);
                         }
                     }
                 });
             }
         });
+
+        if (options.getExecutorServiceTimeoutNanos() >= 0) {
+            binder.bindListener(new AbstractMatcher<Binding<?>>()
+            {
+                @Override
+                public boolean matches(Binding<?> binding)
+                {
+                    // unscoped bindings may provide executors shared with or owned by others
+                    return ExecutorService.class.isAssignableFrom(binding.getKey().getTypeLiteral().getRawType())
+                        && Scopes.isSingleton(binding);
+                }
+            }, new ProvisionListener()
+            {
+                @Override
+                public <T> void onProvision(ProvisionInvocation<T> provision)
+                {
+                    T obj = provision.provision();
+                    // listeners of a parent injector also see provisions of child injectors
+                    boolean own = injectorProvider.get().getExistingBinding(provision.getBinding().getKey()) != null;
+                    if (own && obj instanceof ExecutorService) {
+                        executorServices.add((ExecutorService) obj);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if the closest injector that has a LifeCycleModule, from the injector that encountered
+     *         a type up to the root, is the injector of this module
+     */
+    private boolean owns(Injector encountering)
+    {
+        Injector own = injectorProvider.get();
+        for (Injector injector = encountering; injector != null && injector != own; injector = injector.getParent()) {
+            for (Key<?> key : injector.getBindings().keySet()) {
+                if (key.getTypeLiteral().getRawType() == LifeCycleMarker.class) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     @Provides
@@ -96,14 +231,71 @@ public class LifeCycleModule implements Module
     public LifeCycleManager getServerManager()
             throws Exception
     {
-        LifeCycleManager lifeCycleManager = new LifeCycleManager(injectedInstances, lifeCycleMethodsMap, listeners);
-        lifeCycleManagerRef.set(lifeCycleManager);
-        return lifeCycleManager;
+        // Instances can be injected concurrently. They are queued until the manager is published so that
+        // the manager receives all of them in the order of injection.
+        synchronized (injectedInstances) {
+            LifeCycleManager lifeCycleManager = new LifeCycleManager(ImmutableList.of(), lifeCycleMethodsMap, listeners, options, injectorProvider, executorServices);
+            try {
+                List<Object> remaining;
+                while (!(remaining = drainInjectedInstances()).isEmpty()) {
+                    // instances injected by PostConstruct methods called here are added in the next round
+                    for (Object instance : remaining) {
+                        lifeCycleManager.addInstance(instance);
+                    }
+                }
+            }
+            catch (Exception | Error ex) {
+                if (options.isFailFast()) {
+                    failed = true;
+                    lifeCycleManager.rollback(ex);
+                }
+                throw ex;
+            }
+            lifeCycleManagerRef.set(lifeCycleManager);
+            return lifeCycleManager;
+        }
+    }
+
+    /**
+     * @return the LifeCycleManager if it's already created, or null
+     */
+    LifeCycleManager getCreatedLifeCycleManager()
+    {
+        return lifeCycleManagerRef.get();
+    }
+
+    private void manage(Object obj)
+    {
+        LifeCycleManager lifeCycleManager = lifeCycleManagerRef.get();
+        if (lifeCycleManager == null) {
+            synchronized (injectedInstances) {
+                lifeCycleManager = lifeCycleManagerRef.get();
+                if (lifeCycleManager == null) {
+                    injectedInstances.add(obj);
+                    return;
+                }
+            }
+        }
+        try {
+            lifeCycleManager.addInstance(obj);
+        }
+        catch (Exception e) {
+            failed = options.isFailFast();
+            throw new Error(e);
+        }
+    }
+
+    private List<Object> drainInjectedInstances()
+    {
+        List<Object> instances = ImmutableList.copyOf(injectedInstances);
+        injectedInstances.clear();
+        return instances;
     }
 
     private boolean isLifeCycleClass(Class<?> clazz)
     {
         LifeCycleMethods methods = lifeCycleMethodsMap.get(clazz);
-        return methods.hasFor(PostConstruct.class) || methods.hasFor(PreDestroy.class);
+        return methods.hasFor(PostConstruct.class) || methods.hasFor(PreDestroy.class) || methods.hasFor(PreStop.class)
+                || WeaklyManaged.class.isAssignableFrom(clazz);
     }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Options of LifeCycleModule and LifeCycleManager set through Bootstrap
+ */
+final class LifeCycleOptions
+{
+    private Executor postConstructExecutor;
+    private Executor preDestroyExecutor;
+    private long executorServiceTimeoutNanos = -1;
+    private boolean failFast;
+    private long watchdogCallTimeoutNanos;
+    private long watchdogTotalTimeoutNanos;
+    private boolean watchdogAbort;
+    private long preDestroyTimeoutNanos;
+    private long destroyTimeoutNanos;
+
+    /**
+     * Sets the options to the ones of the other options, such as those of the parent of a child injector.
+     *
+     * @param other options to copy
+     * @return this
+     */
+    LifeCycleOptions copyFrom(LifeCycleOptions other)
+    {
+        this.postConstructExecutor = other.postConstructExecutor;
+        this.preDestroyExecutor = other.preDestroyExecutor;
+        this.executorServiceTimeoutNanos = other.executorServiceTimeoutNanos;
+        this.failFast = other.failFast;
+        this.watchdogCallTimeoutNanos = other.watchdogCallTimeoutNanos;
+        this.watchdogTotalTimeoutNanos = other.watchdogTotalTimeoutNanos;
+        this.watchdogAbort = other.watchdogAbort;
+        this.preDestroyTimeoutNanos = other.preDestroyTimeoutNanos;
+        this.destroyTimeoutNanos = other.destroyTimeoutNanos;
+        return this;
+    }
+
+    /**
+     * @return executor to call PostConstruct methods on in {@link LifeCycleManager#start()},
+     *         or null to call them when instances are injected
+     */
+    Executor getPostConstructExecutor()
+    {
+        return postConstructExecutor;
+    }
+
+    LifeCycleOptions setPostConstructExecutor(Executor postConstructExecutor)
+    {
+        this.postConstructExecutor = postConstructExecutor;
+        return this;
+    }
+
+    /**
+     * @return executor to call PreDestroy methods on concurrently, or null to call them one by one
+     */
+    Executor getPreDestroyExecutor()
+    {
+        return preDestroyExecutor;
+    }
+
+    LifeCycleOptions setPreDestroyExecutor(Executor preDestroyExecutor)
+    {
+        this.preDestroyExecutor = preDestroyExecutor;
+        return this;
+    }
+
+    /**
+     * @return time to wait for ExecutorServices provided by the injector to terminate in
+     *         {@link LifeCycleManager#destroy()}, or negative not to shut them down
+     */
+    long getExecutorServiceTimeoutNanos()
+    {
+        return executorServiceTimeoutNanos;
+    }
+
+    LifeCycleOptions setExecutorServiceTimeoutNanos(long executorServiceTimeoutNanos)
+    {
+        this.executorServiceTimeoutNanos = executorServiceTimeoutNanos;
+        return this;
+    }
+
+    /**
+     * @return true to abort starting at the first failure and destroy instances already started
+     */
+    boolean isFailFast()
+    {
+        return failFast;
+    }
+
+    LifeCycleOptions setFailFast(boolean failFast)
+    {
+        this.failFast = failFast;
+        return this;
+    }
+
+    /**
+     * @return a new watchdog of starting instances, or null if the startup is not watched
+     */
+    StartupWatchdog newStartupWatchdog(List<LifeCycleListener> listeners)
+    {
+        if (watchdogCallTimeoutNanos <= 0 && watchdogTotalTimeoutNanos <= 0) {
+            return null;
+        }
+        return new StartupWatchdog(watchdogCallTimeoutNanos, watchdogTotalTimeoutNanos, watchdogAbort, listeners);
+    }
+
+    LifeCycleOptions setStartupWatchdog(long callTimeoutNanos, long totalTimeoutNanos, boolean abort)
+    {
+        this.watchdogCallTimeoutNanos = callTimeoutNanos;
+        this.watchdogTotalTimeoutNanos = totalTimeoutNanos;
+        this.watchdogAbort = abort;
+        return this;
+    }
+
+    /**
+     * @return time to wait for PreDestroy methods of each instance, or 0 to wait until they return
+     */
+    long getPreDestroyTimeoutNanos()
+    {
+        return preDestroyTimeoutNanos;
+    }
+
+    /**
+     * @return time to destroy all instances within in {@link LifeCycleManager#destroy()}, or 0 for no timeout
+     */
+    long getDestroyTimeoutNanos()
+    {
+        return destroyTimeoutNanos;
+    }
+
+    LifeCycleOptions setDestroyTimeouts(long preDestroyTimeoutNanos, long destroyTimeoutNanos)
+    {
+        this.preDestroyTimeoutNanos = preDestroyTimeoutNanos;
+        this.destroyTimeoutNanos = destroyTimeoutNanos;
+        return this;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Assigns instances of the annotated class to a numbered life cycle phase.
+ *
+ * PostConstruct methods of instances in a phase are deferred until {@link LifeCycleManager#start()}, which
+ * starts phases in ascending order. {@link LifeCycleManager#destroy()} destroys phases in descending order.
+ * Instances of classes without this annotation are in phase 0, and they are started when they are injected
+ * unless PostConstruct methods are deferred by {@link Bootstrap#postConstructConcurrently}. Instances in a phase
+ * are started and destroyed concurrently if the life cycle has an executor, and in dependency order otherwise.
+ *
+ * The value must be positive. Phase 0 is reserved for classes without this annotation because they may be
+ * started before the life cycle starts, and a class with a phase of 0 or less is rejected when its instance
+ * is injected.
+ *
+ * An instance must not depend on an instance in a later phase because the dependency is not started yet
+ * when the dependent is started.
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface LifeCyclePhase
+{
+    int value();
+}
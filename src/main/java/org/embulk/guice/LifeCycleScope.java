@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.inject.Key;
+import com.google.inject.OutOfScopeException;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.google.inject.Scope;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Scope of {@link LifeCycleScoped} instances with explicit units. Inject it to enter units.
+ *
+ * <pre>
+ * try (LifeCycleScope.Unit unit = lifeCycleScope.enter()) {
+ *     injector.getInstance(TaskRunner.class).run();
+ * }
+ * </pre>
+ *
+ * Each unit has its own LifeCycleManager. A LifeCycleScoped instance is started when it's constructed in the
+ * unit, and closing the unit calls PreDestroy methods of exactly the instances constructed in the unit, in the
+ * reverse order. Instances of the other scopes constructed for them are managed by the injector as usual.
+ * The LifeCycleManager of the injector never holds instances of units. LifeCycleListeners are notified of
+ * instances in units, but not of starting and stopping units.
+ */
+public final class LifeCycleScope
+        implements Scope
+{
+    private final LifeCycleMethodsMap methodsMap;
+    private final LifeCycleListener instanceListener;
+    private final Consumer<Object> outOfUnit;
+    private final ThreadLocal<Unit> currentUnit = new ThreadLocal<Unit>();
+    private final ThreadLocal<Deque<Provision>> provisions = new ThreadLocal<Deque<Provision>>();
+
+    /**
+     * LifeCycleScoped instance under construction in the current thread
+     */
+    private static final class Provision
+    {
+        private final Class<?> type;
+        private Object instance;
+
+        Provision(Class<?> type)
+        {
+            this.type = type;
+        }
+    }
+
+    /**
+     * @param methodsMap methods map of the injector
+     * @param listeners listeners of the injector
+     * @param outOfUnit receives instances injected while LifeCycleScoped instances are constructed that belong
+     *        to the injector
+     */
+    LifeCycleScope(LifeCycleMethodsMap methodsMap, List<LifeCycleListener> listeners, Consumer<Object> outOfUnit)
+    {
+        this.methodsMap = methodsMap;
+        this.instanceListener = new InstanceListener(listeners);
+        this.outOfUnit = outOfUnit;
+    }
+
+    /**
+     * Enters a new unit in the current thread.
+     *
+     * @return the unit to close when the work finishes
+     * @throws IllegalStateException if the current thread is already in a unit
+     */
+    public Unit enter()
+    {
+        Unit current = currentUnit.get();
+        if (current != null && !current.closed) {
+            throw new IllegalStateException("Already in a unit of LifeCycleScope");
+        }
+        Unit unit = new Unit();
+        currentUnit.set(unit);
+        return unit;
+    }
+
+    @Override
+    public <T> Provider<T> scope(final Key<T> key, final Provider<T> unscoped)
+    {
+        return new Provider<T>()
+        {
+            @Override
+            public T get()
+            {
+                Unit unit = currentUnit.get();
+                if (unit == null || unit.closed) {
+                    throw new OutOfScopeException("Cannot access " + key + " outside of a unit of LifeCycleScope");
+                }
+                return unit.get(key, unscoped);
+            }
+
+            @Override
+            public String toString()
+            {
+                return unscoped + "[LifeCycleScope]";
+            }
+        };
+    }
+
+    /**
+     * Holds the LifeCycleScoped instance under construction in the current thread, which is injected after
+     * its dependencies, so that the unit starts it. Dependencies are left to the injector, which starts them
+     * before the instance is constructed.
+     *
+     * @return false if obj is not the LifeCycleScoped instance under construction in the current thread
+     */
+    boolean capture(Object obj)
+    {
+        Deque<Provision> stack = provisions.get();
+        if (stack == null || stack.isEmpty()) {
+            return false;
+        }
+        Provision provision = stack.peek();
+        if (!provision.type.isInstance(obj)) {
+            return false;
+        }
+        if (provision.instance != null) {
+            outOfUnit.accept(provision.instance);  // a dependency of the same type injected earlier
+        }
+        provision.instance = obj;
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LifeCycleScope";
+    }
+
+    /**
+     * Unit of LifeCycleScope. Closing it destroys instances constructed in it.
+     */
+    public final class Unit
+            implements AutoCloseable
+    {
+        private final Map<Key<?>, Object> instances = Maps.newHashMap();
+        private final LifeCycleManager lifeCycleManager;
+        private volatile boolean closed;
+
+        private Unit()
+        {
+            try {
+                lifeCycleManager = new LifeCycleManager(ImmutableList.of(), methodsMap, ImmutableList.of(instanceListener));
+            }
+            catch (Exception ex) {
+                throw new AssertionError(ex);  // nothing to start
+            }
+            lifeCycleManager.start();
+        }
+
+        private synchronized <T> T get(Key<T> key, Provider<T> unscoped)
+        {
+            if (closed) {
+                throw new OutOfScopeException("Unit of LifeCycleScope is already closed");
+            }
+            Object obj = instances.get(key);
+            if (obj == null && !instances.containsKey(key)) {
+                obj = provision(key, unscoped);
+                instances.put(key, obj);
+            }
+            @SuppressWarnings("unchecked")
+            T typed = (T) obj;  // provided by the provider of the key
+            return typed;
+        }
+
+        private <T> T provision(Key<T> key, Provider<T> unscoped)
+        {
+            Deque<Provision> stack = provisions.get();
+            if (stack == null) {
+                stack = new ArrayDeque<Provision>();
+                provisions.set(stack);
+            }
+            Provision provision = new Provision(key.getTypeLiteral().getRawType());
+            stack.push(provision);
+            T obj = null;
+            try {
+                obj = unscoped.get();
+            }
+            finally {
+                stack.pop();
+                if (provision.instance != null && provision.instance != obj) {
+                    outOfUnit.accept(provision.instance);
+                }
+            }
+            if (provision.instance == obj && obj != null) {
+                try {
+                    lifeCycleManager.addInstance(obj);
+                }
+                catch (Exception ex) {
+                    throw new ProvisionException("Failed to start " + obj.getClass().getName(), ex);
+                }
+            }
+            return obj;
+        }
+
+        /**
+         * Exits the unit, and calls PreDestroy methods of instances constructed in the unit in the reverse order.
+         *
+         * @throws Exception errors of PreDestroy methods
+         */
+        @Override
+        public void close()
+                throws Exception
+        {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                instances.clear();
+            }
+            if (currentUnit.get() == this) {
+                currentUnit.remove();
+            }
+            lifeCycleManager.destroy();
+        }
+    }
+
+    private static class InstanceListener
+            implements LifeCycleListener
+    {
+        private final List<LifeCycleListener> listeners;
+
+        InstanceListener(List<LifeCycleListener> listeners)
+        {
+            this.listeners = listeners;
+        }
+
+        @Override
+        public void startingLifeCycle() { }
+
+        @Override
+        public void startedLifeCycle() { }
+
+        @Override
+        public void stoppingLifeCycle() { }
+
+        @Override
+        public void stoppedLifeCycle() { }
+
+        @Override
+        public void startingInstance(Object object)
+        {
+            for (LifeCycleListener listener : listeners) {
+                listener.startingInstance(object);
+            }
+        }
+
+        @Override
+        public void postConstructingInstance(Object object, Method postConstructMethod)
+        {
+            for (LifeCycleListener listener : listeners) {
+                listener.postConstructingInstance(object, postConstructMethod);
+            }
+        }
+
+        @Override
+        public void stoppingInstance(Object object)
+        {
+            for (LifeCycleListener listener : listeners) {
+                listener.stoppingInstance(object);
+            }
+        }
+
+        @Override
+        public void preStoppingInstance(Object object, Method preStopMethod)
+        {
+            for (LifeCycleListener listener : listeners) {
+                listener.preStoppingInstance(object, preStopMethod);
+            }
+        }
+
+        @Override
+        public void preDestroyingInstance(Object object, Method preDestroyMethod)
+        {
+            for (LifeCycleListener listener : listeners) {
+                listener.preDestroyingInstance(object, preDestroyMethod);
+            }
+        }
+    }
+}
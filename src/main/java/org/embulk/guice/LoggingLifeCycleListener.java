@@ -68,6 +68,12 @@ public class LoggingLifeCycleListener implements LifeCycleListener
         log.fine("\t" + postConstruct.getName() + "()");
     }
 
+    @Override
+    public void preStoppingInstance(Object obj, Method preStop)
+    {
+        log.fine("Stopping intake of " + obj.getClass().getName() + ": " + preStop.getName() + "()");
+    }
+
     @Override
     public void stoppingInstance(Object obj)
     {
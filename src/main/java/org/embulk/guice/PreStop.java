@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method that stops intake of new work, such as closing a listening socket or rejecting new tasks.
+ *
+ * {@link LifeCycleManager#destroy()} calls PreStop methods of all managed instances concurrently before it
+ * calls any PreDestroy method, so that no instance keeps accepting work while its dependencies are being
+ * destroyed. Instances of live child injectors are included, before any child is destroyed. Failures of
+ * PreStop methods are reported by destroy after all instances are destroyed.
+ * A PreStop method must not have arguments.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PreStop
+{
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Stage;
+import com.google.inject.spi.DisableCircularProxiesOption;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.InjectionRequest;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.Message;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.ProvisionListenerBinding;
+import com.google.inject.spi.RequireAtInjectOnConstructorsOption;
+import com.google.inject.spi.RequireExactBindingAnnotationsOption;
+import com.google.inject.spi.RequireExplicitBindingsOption;
+import com.google.inject.spi.ScopeBinding;
+import com.google.inject.spi.StaticInjectionRequest;
+import com.google.inject.spi.TypeConverterBinding;
+import com.google.inject.spi.TypeListenerBinding;
+import com.google.inject.spi.UntargettedBinding;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Blueprint that creates injectors from bindings recorded by {@link Bootstrap#prepare()}
+ */
+public final class PreparedBootstrap
+{
+    private final Bootstrap bootstrap;
+    private final Stage stage;
+    private final Recording userElements;
+    private final List<Recording> lazyElements;
+    private final AtomicBoolean firstBuild = new AtomicBoolean(true);
+
+    PreparedBootstrap(Bootstrap bootstrap, Stage stage, List<Module> userModules, List<List<Module>> lazyModules)
+    {
+        this.bootstrap = bootstrap;
+        this.stage = stage;
+        this.userElements = new Recording(stage, userModules);
+        ImmutableList.Builder<Recording> lazyElements = ImmutableList.builder();
+        for (List<Module> lazy : lazyModules) {
+            lazyElements.add(new Recording(stage, lazy));
+        }
+        this.lazyElements = lazyElements.build();
+    }
+
+    /**
+     * Elements recorded from modules. Elements other than the reusable types below are set up by a single
+     * injector, such as provider instances of @Provides methods and multibindings, lookups by getProvider
+     * or getMembersInjector of Binder, and private modules. Modules that have them are configured again
+     * for each injector after the first.
+     */
+    private static final class Recording
+    {
+        // instances and listeners in these elements are shared by the injectors, as toInstance is
+        private static final List<Class<? extends Element>> REUSABLE_TYPES = ImmutableList.of(
+                UntargettedBinding.class, LinkedKeyBinding.class, ProviderKeyBinding.class, InstanceBinding.class,
+                ScopeBinding.class, TypeConverterBinding.class, TypeListenerBinding.class,
+                ProvisionListenerBinding.class, InjectionRequest.class, StaticInjectionRequest.class, Message.class,
+                DisableCircularProxiesOption.class, RequireExplicitBindingsOption.class,
+                RequireAtInjectOnConstructorsOption.class, RequireExactBindingAnnotationsOption.class);
+
+        private final Stage stage;
+        private final List<Module> modules;
+        private final List<Element> elements;
+        private final boolean reusable;
+        private final AtomicBoolean recordedUsed = new AtomicBoolean(false);
+
+        Recording(Stage stage, List<Module> modules)
+        {
+            this.stage = stage;
+            this.modules = ImmutableList.copyOf(modules);
+            this.elements = ImmutableList.copyOf(Elements.getElements(stage, modules));
+            this.reusable = isReusable(elements);
+        }
+
+        List<Element> elements()
+        {
+            if (!reusable && !recordedUsed.compareAndSet(false, true)) {
+                return Elements.getElements(stage, modules);
+            }
+            return elements;
+        }
+
+        private static boolean isReusable(List<Element> elements)
+        {
+            for (Element element : elements) {
+                if (!isReusableType(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isReusableType(Element element)
+        {
+            for (Class<? extends Element> type : REUSABLE_TYPES) {
+                if (type.isInstance(element)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public LifeCycleInjector initialize()
+    {
+        return build(true);
+    }
+
+    public CloseableInjector initializeCloseable()
+    {
+        return build(false);
+    }
+
+    private LifeCycleInjectorProxy build(boolean destroyOnShutdownHook)
+    {
+        // classes are loaded by the first build
+        List<Module> userModules = ImmutableList.of(Elements.getModule(userElements.elements()));
+        Injector injector = bootstrap.createInjector(stage, userModules, firstBuild.compareAndSet(true, false));
+        bootstrap.startLifeCycle(injector, null);
+
+        LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
+        if (destroyOnShutdownHook) {
+            lifeCycleManager.destroyOnShutdownHook();
+        }
+
+        ImmutableList.Builder<LazyChildInjector> lazyChildInjectors = ImmutableList.builder();
+        for (Recording elements : lazyElements) {
+            lazyChildInjectors.add(new LazyChildInjector(elements.elements()));
+        }
+        return new LifeCycleInjectorProxy(injector, lifeCycleManager, null, lazyChildInjectors.build());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Scopes;
+import com.google.inject.spi.InstanceBinding;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Instantiates singletons of an injector concurrently in dependency order
+ */
+final class SingletonInstantiator
+{
+    private final Injector injector;
+    private final DependencyGraph graph;
+    private final Map<Key<?>, CompletableFuture<Object>> futures = Maps.newLinkedHashMap();
+    private TaskAborter aborter;
+
+    SingletonInstantiator(Injector injector)
+    {
+        this.injector = injector;
+        this.graph = new DependencyGraph(injector);
+    }
+
+    /**
+     * Instantiates all singletons and waits until they are constructed.
+     *
+     * @param executor executor to construct singletons on
+     * @param failFast true to skip pending singletons and interrupt ones under construction at the first failure
+     */
+    void instantiate(Executor executor, boolean failFast)
+    {
+        if (failFast) {
+            aborter = new TaskAborter();
+        }
+        Map<Key<?>, CompletableFuture<Object>> scheduled = start(executor);
+        try {
+            CompletableFuture.allOf(scheduled.values().toArray(new CompletableFuture<?>[0])).join();
+        }
+        catch (CompletionException ex) {
+            throw aggregate(scheduled.values());
+        }
+    }
+
+    /**
+     * Schedules construction of all singletons. A singleton is constructed after all singletons it depends on.
+     *
+     * @param executor executor to construct singletons on
+     * @return futures completed when the singleton of the key is constructed
+     */
+    Map<Key<?>, CompletableFuture<Object>> start(Executor executor)
+    {
+        Set<Key<?>> singletonKeys = Sets.newLinkedHashSet();
+        for (Binding<?> binding : injector.getBindings().values()) {
+            if (!(binding instanceof InstanceBinding) && Scopes.isSingleton(binding)) {
+                singletonKeys.add(binding.getKey());
+            }
+        }
+
+        Set<Key<?>> visiting = Sets.newHashSet();
+        for (Key<?> key : singletonKeys) {
+            schedule(key, singletonKeys, visiting, executor);
+        }
+        return futures;
+    }
+
+    private CompletableFuture<Object> schedule(final Key<?> key, Set<Key<?>> singletonKeys, Set<Key<?>> visiting, Executor executor)
+    {
+        CompletableFuture<Object> future = futures.get(key);
+        if (future != null) {
+            return future;
+        }
+
+        visiting.add(key);
+        List<CompletableFuture<Object>> dependencies = Lists.newArrayList();
+        for (Key<?> dependency : graph.nearestDependencies(key, isSingletonKey(singletonKeys))) {
+            if (!visiting.contains(dependency)) {  // a cycle is reported by Guice when the key is provisioned
+                dependencies.add(schedule(dependency, singletonKeys, visiting, executor));
+            }
+        }
+        visiting.remove(key);
+
+        future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+            .thenApplyAsync(new Function<Void, Object>() {
+                public Object apply(Void ignored)
+                {
+                    if (aborter == null) {
+                        return injector.getInstance(key);
+                    }
+                    if (!aborter.enter()) {
+                        return null;  // aborted by a failure of another singleton
+                    }
+                    try {
+                        return injector.getInstance(key);
+                    }
+                    catch (RuntimeException | Error ex) {
+                        aborter.abort();
+                        throw ex;
+                    }
+                    finally {
+                        aborter.exit();
+                    }
+                }
+            }, executor);
+        futures.put(key, future);
+        return future;
+    }
+
+    private static Predicate<Key<?>> isSingletonKey(final Set<Key<?>> singletonKeys)
+    {
+        return new Predicate<Key<?>>() {
+            public boolean test(Key<?> key)
+            {
+                return singletonKeys.contains(key);
+            }
+        };
+    }
+
+    private static RuntimeException aggregate(Iterable<CompletableFuture<Object>> futures)
+    {
+        Map<Throwable, Boolean> causes = new IdentityHashMap<>();
+        Throwable first = null;
+        for (CompletableFuture<Object> future : futures) {
+            try {
+                future.join();
+            }
+            catch (CompletionException ex) {
+                Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+                if (causes.put(cause, true) == null) {
+                    if (first == null) {
+                        first = cause;
+                    }
+                    else {
+                        first.addSuppressed(cause);
+                    }
+                }
+            }
+        }
+        if (first instanceof RuntimeException) {
+            return (RuntimeException) first;
+        }
+        if (first instanceof Error) {
+            throw (Error) first;
+        }
+        return new RuntimeException(first);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports PostConstruct methods running longer than the budgets, and optionally aborts the startup
+ */
+final class StartupWatchdog
+{
+    private static final Logger log = Logger.getLogger(LifeCycleManager.class.getName());
+
+    private final long callTimeoutNanos;
+    private final boolean abort;
+    private final List<LifeCycleListener> listeners;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<Call, Boolean> running = Maps.newConcurrentMap();
+    private volatile boolean aborted;
+    private volatile boolean closed;
+
+    private final class Call
+    {
+        private final Thread thread = Thread.currentThread();
+        private final long startNanos = System.nanoTime();
+        private final Object object;
+        private final Method method;
+        private ScheduledFuture<?> timeout;
+        private boolean interrupted;  // guarded by StartupWatchdog.this
+
+        Call(Object object, Method method)
+        {
+            this.object = object;
+            this.method = method;
+        }
+
+        private String describe()
+        {
+            return "PostConstruct " + object.getClass().getName() + "." + method.getName() + "()";
+        }
+    }
+
+    /**
+     * @param callTimeoutNanos budget of a PostConstruct method, or 0 not to watch each method
+     * @param totalTimeoutNanos budget of starting all instances from now, or 0 not to watch the total
+     * @param abort true to interrupt methods over the budgets and fail the startup
+     * @param listeners listeners notified of methods over the budgets
+     */
+    StartupWatchdog(long callTimeoutNanos, long totalTimeoutNanos, boolean abort, List<LifeCycleListener> listeners)
+    {
+        this.callTimeoutNanos = callTimeoutNanos;
+        this.abort = abort;
+        this.listeners = listeners;
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("startup-watchdog-%d").setDaemon(true).build());
+        timer.setRemoveOnCancelPolicy(true);
+        if (totalTimeoutNanos > 0) {
+            timer.schedule(new Runnable() {
+                public void run()
+                {
+                    totalTimedOut();
+                }
+            }, totalTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Invokes the PostConstruct method under the watch, or without the watch after the watchdog is closed.
+     *
+     * @throws TimeoutException if the startup is aborted by the watchdog
+     */
+    void invoke(Object obj, Method postConstruct)
+            throws IllegalAccessException, InvocationTargetException, TimeoutException
+    {
+        if (closed) {
+            postConstruct.invoke(obj);
+            return;
+        }
+        if (aborted) {
+            throw new TimeoutException("Startup aborted by the watchdog before " + obj.getClass().getName() + " started");
+        }
+        final Call call = new Call(obj, postConstruct);
+        running.put(call, true);
+        if (callTimeoutNanos > 0) {
+            try {
+                call.timeout = timer.schedule(new Runnable() {
+                    public void run()
+                    {
+                        timedOut(call);
+                    }
+                }, callTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            catch (RejectedExecutionException ex) {
+                // closed concurrently; the startup is over
+                running.remove(call);
+                postConstruct.invoke(obj);
+                return;
+            }
+        }
+        try {
+            postConstruct.invoke(obj);
+        }
+        catch (InvocationTargetException ex) {
+            exit(call, ex);
+            throw ex;
+        }
+        exit(call, null);
+    }
+
+    /**
+     * Stops watching. Methods called later are not watched.
+     */
+    void close()
+    {
+        closed = true;
+        timer.shutdownNow();
+    }
+
+    private void exit(Call call, Throwable failure)
+            throws TimeoutException
+    {
+        running.remove(call);
+        if (call.timeout != null) {
+            call.timeout.cancel(false);
+        }
+        boolean interrupted;
+        synchronized (this) {
+            interrupted = call.interrupted;
+        }
+        if (interrupted) {
+            Thread.interrupted();  // the interrupt by the watchdog must not leak to later work of the thread
+            TimeoutException timeout = new TimeoutException("Startup aborted by the watchdog: " + call.describe()
+                    + " exceeded the budget");
+            if (failure != null) {
+                timeout.initCause(failure);
+            }
+            throw timeout;
+        }
+    }
+
+    private void timedOut(Call call)
+    {
+        report(call);
+        if (abort) {
+            aborted = true;
+            interrupt(call);
+        }
+    }
+
+    private void totalTimedOut()
+    {
+        log.warning("Startup exceeded the total budget");
+        for (Call call : ImmutableList.copyOf(running.keySet())) {
+            report(call);
+        }
+        if (abort) {
+            aborted = true;
+            for (Call call : ImmutableList.copyOf(running.keySet())) {
+                interrupt(call);
+            }
+        }
+    }
+
+    private synchronized void interrupt(Call call)
+    {
+        if (running.containsKey(call) && !call.interrupted) {
+            call.interrupted = true;
+            call.thread.interrupt();
+        }
+    }
+
+    private void report(Call call)
+    {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.startNanos);
+        StackTraceElement[] stackTrace = call.thread.getStackTrace();
+
+        TimeoutException stack = new TimeoutException("Stack trace of thread " + call.thread.getName());
+        stack.setStackTrace(stackTrace);
+        log.log(Level.WARNING, call.describe() + " has been running for " + elapsedMillis + " ms", stack);
+
+        for (LifeCycleListener listener : listeners) {
+            listener.postConstructTimedOut(call.object, call.method, elapsedMillis, stackTrace);
+        }
+    }
+}
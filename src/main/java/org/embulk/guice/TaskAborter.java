@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+
+/**
+ * Skips pending tasks and interrupts running ones after one of them fails
+ */
+final class TaskAborter
+{
+    private final Set<Thread> running = Sets.newHashSet();
+    private final Set<Thread> interrupted = Sets.newHashSet();
+    private boolean aborted;
+
+    /**
+     * Registers the current thread as running a task.
+     *
+     * @return false if the tasks are aborted and the task must be skipped
+     */
+    synchronized boolean enter()
+    {
+        if (aborted) {
+            return false;
+        }
+        running.add(Thread.currentThread());
+        return true;
+    }
+
+    /**
+     * Unregisters the current thread. If the thread was interrupted by {@link #abort()}, the interruption is
+     * cleared so that the thread of the executor runs later tasks normally. Interrupts from others are kept.
+     */
+    void exit()
+    {
+        boolean delivered;
+        synchronized (this) {
+            running.remove(Thread.currentThread());
+            delivered = interrupted.remove(Thread.currentThread());
+        }
+        if (delivered) {
+            Thread.interrupted();
+        }
+    }
+
+    synchronized void abort()
+    {
+        if (!aborted) {
+            aborted = true;
+            for (Thread thread : running) {
+                if (thread != Thread.currentThread()) {  // the failing task aborts the others
+                    interrupted.add(thread);
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+}
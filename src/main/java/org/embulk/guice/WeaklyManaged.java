@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+/**
+ * Opts instances of a class into being tracked weakly by {@link LifeCycleManager}, so that short-lived unscoped
+ * instances can be garbage collected before the injector is destroyed.
+ *
+ * Instead of calling PreDestroy methods, the manager runs the action returned by {@link #cleanupAction()} once:
+ * after the instance becomes unreachable, or in {@link LifeCycleManager#destroy()} if it's still reachable then.
+ * PreDestroy methods of the class are not called. Actions of unreachable instances run in the thread that adds
+ * the next instance to the manager, or destroys it.
+ *
+ * The action must not refer to the instance, directly or through an inner class or a lambda that captures
+ * it; otherwise the instance never becomes unreachable. It may touch only the state it holds itself, such as
+ * a connection or a file that the instance shares with it, and that state must be safe to release from
+ * another thread.
+ *
+ * <pre>
+ * public class TaskBuffer implements WeaklyManaged
+ * {
+ *     private final TempFile file = TempFile.create();
+ *
+ *     public Runnable cleanupAction()
+ *     {
+ *         return new DeleteFile(file);  // a static class holding the file, but not the TaskBuffer
+ *     }
+ * }
+ * </pre>
+ */
+public interface WeaklyManaged
+{
+    /**
+     * Called once after PostConstruct methods of the instance are called.
+     *
+     * @return action that releases the state of the instance
+     */
+    Runnable cleanupAction();
+}
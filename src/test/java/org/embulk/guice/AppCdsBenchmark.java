@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.collect.Lists;
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Measures the wall time of JVMs that run {@link BootstrapTraining} with {@link BenchmarkModule}, with the default
+ * CDS archive of the JDK and with an AppCDS archive created the same way as docs/appcds.gradle. It needs JDK 11
+ * or later and the multi-release jar on the class path, because only classes in jar files are archived:
+ *
+ * <pre>
+ * ./gradlew runBenchmark -Pjava21Home=&lt;JDK 21&gt; -Pbenchmark=AppCdsBenchmark -PbenchmarkJavaHome=&lt;JDK&gt;
+ * </pre>
+ */
+public final class AppCdsBenchmark
+{
+    private static final int RUNS = 20;
+
+    private AppCdsBenchmark()
+    {
+    }
+
+    public static class BenchmarkModule
+            implements Module
+    {
+        @Override
+        public void configure(Binder binder)
+        {
+            binder.bind(AnotherInstance.class).in(Scopes.SINGLETON);
+            binder.bind(AnInstance.class).in(Scopes.SINGLETON);
+            binder.bind(DependentInstance.class).in(Scopes.SINGLETON);
+            binder.bind(DependentBoundInstance.class).to(DependentInstanceImpl.class).in(Scopes.SINGLETON);
+            binder.bind(InstanceOne.class).in(Scopes.SINGLETON);
+            binder.bind(InstanceTwo.class).in(Scopes.SINGLETON);
+            binder.bind(InstanceThatRequiresStart.class).in(Scopes.SINGLETON);
+            binder.bind(InstanceThatUsesInstanceThatRequiresStart.class).in(Scopes.SINGLETON);
+        }
+    }
+
+    private static int javaFeatureVersion()
+    {
+        String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+
+    // -Xshare:dump rejects non-empty directories on the class path, so the test classes are copied into a jar.
+    private static String jarClassPath(Path workDir)
+            throws IOException
+    {
+        List<String> entries = Lists.newArrayList();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            Path path = Paths.get(entry);
+            if (Files.isDirectory(path)) {
+                Path jar = workDir.resolve("classes" + entries.size() + ".jar");
+                writeJar(path, jar);
+                entries.add(jar.toString());
+            }
+            else if (Files.isRegularFile(path)) {
+                entries.add(entry);
+            }
+        }
+        return Joiner.on(File.pathSeparator).join(entries);
+    }
+
+    private static void writeJar(final Path dir, Path jar)
+            throws IOException
+    {
+        try (final JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        throws IOException
+                {
+                    out.putNextEntry(new JarEntry(dir.relativize(file).toString().replace(File.separatorChar, '/')));
+                    Files.copy(file, out);
+                    out.closeEntry();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private static long runMillis(List<String> command)
+            throws IOException, InterruptedException
+    {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        byte[] output = ByteStreams.toByteArray(process.getInputStream());
+        int exitCode = process.waitFor();
+        long millis = (System.nanoTime() - start) / 1000000;
+        if (exitCode != 0) {
+            throw new IllegalStateException("Command " + command + " exited with " + exitCode + ":\n" + new String(output));
+        }
+        return millis;
+    }
+
+    private static long medianMillis(List<String> command)
+            throws IOException, InterruptedException
+    {
+        runMillis(command);  // warmup of the file system cache
+        List<Long> times = Lists.newArrayList();
+        for (int i = 0; i < RUNS; i++) {
+            times.add(runMillis(command));
+        }
+        Collections.sort(times);
+        return times.get(RUNS / 2);
+    }
+
+    private static List<String> command(String java, String classPath, String... options)
+    {
+        return ImmutableList.<String>builder()
+            .add(java)
+            // Guice 4.2 defines classes through reflection on java.lang.ClassLoader
+            .add("--add-opens=java.base/java.lang=ALL-UNNAMED")
+            .add(options)
+            .add("-cp", classPath, BootstrapTraining.class.getName(), BenchmarkModule.class.getName())
+            .build();
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        if (javaFeatureVersion() < 11) {
+            System.out.println("Skipped: Java " + System.getProperty("java.version") + " doesn't support application class data sharing.");
+            return;
+        }
+
+        Path workDir = Files.createTempDirectory("appcds-benchmark");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = jarClassPath(workDir);
+        Path classList = workDir.resolve("classes.lst");
+        Path archive = workDir.resolve("app.jsa");
+
+        runMillis(command(java, classPath, "-Xshare:off", "-XX:DumpLoadedClassList=" + classList));
+        runMillis(ImmutableList.of(java, "-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                    "-XX:SharedArchiveFile=" + archive, "-cp", classPath));
+
+        System.out.println(String.format("Median wall time of %d JVMs bootstrapping %s on Java %s",
+                    RUNS, BenchmarkModule.class.getSimpleName(), System.getProperty("java.version")));
+        System.out.println(String.format("%-24s %6d ms", "default CDS archive",
+                    medianMillis(command(java, classPath))));
+        System.out.println(String.format("%-24s %6d ms", "AppCDS archive",
+                    medianMillis(command(java, classPath, "-Xshare:on", "-XX:SharedArchiveFile=" + archive))));
+    }
+}
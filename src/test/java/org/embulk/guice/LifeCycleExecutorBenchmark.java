@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import com.google.inject.name.Names;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.concurrent.Executor;
+
+/**
+ * Measures initializing and destroying an injector with thousands of blocking PostConstruct and PreDestroy
+ * methods on the bounded thread pool and on the default life cycle executor. Run it against the multi-release
+ * jar on Java 21 or later to compare with virtual threads. This class is in the test sources, so put the test
+ * classes on the class path next to the jar:
+ *
+ * <pre>
+ * ./gradlew runBenchmark -Pjava21Home=&lt;JDK 21&gt; -PbenchmarkJavaHome=&lt;JDK&gt; -PbenchmarkJvmArgs=--add-opens=java.base/java.lang=ALL-UNNAMED
+ * </pre>
+ */
+public final class LifeCycleExecutorBenchmark
+{
+    private static final int INSTANCES = 5000;
+    private static final long BLOCKING_MILLIS = 20;
+    private static final int ITERATIONS = 5;
+
+    private LifeCycleExecutorBenchmark()
+    {
+    }
+
+    public static class BlockingService
+    {
+        @Inject
+        public BlockingService() { }
+
+        @PostConstruct
+        public void start()
+        {
+            TestConcurrentLifeCycle.sleep(BLOCKING_MILLIS);
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            TestConcurrentLifeCycle.sleep(BLOCKING_MILLIS);
+        }
+    }
+
+    private static final Module SERVICES = new Module()
+    {
+        @Override
+        public void configure(Binder binder)
+        {
+            for (int i = 0; i < INSTANCES; i++) {
+                binder.bind(Key.get(BlockingService.class, Names.named("service" + i))).to(BlockingService.class).in(Scopes.SINGLETON);
+            }
+        }
+    };
+
+    private static long bootstrapMillis(Executor executor)
+            throws Exception
+    {
+        long start = System.nanoTime();
+        new Bootstrap(SERVICES).runLifeCycleConcurrently(executor).initializeCloseable().close();
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void measure(String name, Executor executor)
+            throws Exception
+    {
+        bootstrapMillis(executor);  // warmup
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            total += bootstrapMillis(executor);
+        }
+        System.out.println(String.format("%-24s %6d ms/initialize and destroy", name, total / ITERATIONS));
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        System.out.println(String.format("%d instances blocking %d ms in PostConstruct and PreDestroy on Java %s",
+                    INSTANCES, BLOCKING_MILLIS, System.getProperty("java.version")));
+        measure("bounded pool", LifeCycleExecutors.newBoundedPool());
+        measure("LifeCycleExecutors", LifeCycleExecutors.getDefault());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.name.Names;
+
+/**
+ * Measures Bootstrap.initializeCloseable() with chained overrideModulesWith calls.
+ *
+ * <pre>
+ * ./gradlew runBenchmark -Pjava21Home=&lt;JDK 21&gt; -Pbenchmark=OverrideDepthBenchmark
+ * </pre>
+ */
+public final class OverrideDepthBenchmark
+{
+    private static final int BINDINGS = 500;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 50;
+
+    private OverrideDepthBenchmark()
+    {
+    }
+
+    private static Module bindings(final int from, final int to, final String value)
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                for (int i = from; i < to; i++) {
+                    binder.bindConstant().annotatedWith(Names.named("key" + i)).to(value);
+                }
+            }
+        };
+    }
+
+    private static void bootstrap(int depth)
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(bindings(0, BINDINGS, "base"));
+        for (int i = 0; i < depth; i++) {
+            bootstrap.overrideModulesWith(bindings(i, i + 1, "layer" + i));
+        }
+        bootstrap.initializeCloseable().close();
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int[] depths = { 0, 1, 2, 4, 8, 16 };
+        for (int depth : depths) {
+            for (int i = 0; i < WARMUP; i++) {
+                bootstrap(depth);
+            }
+        }
+        for (int depth : depths) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                bootstrap(depth);
+            }
+            double micros = (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+            System.out.println(String.format("depth %2d: %8.1f us/initialize", depth, micros));
+        }
+    }
+}
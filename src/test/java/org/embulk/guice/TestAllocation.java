@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+/**
+ * Fails the build when the bytes allocated per operation on the provisioning
+ * paths exceed the budget checked in as allocation-budget.properties.
+ */
+@Test(singleThreaded = true)
+public class TestAllocation
+{
+    private static final int WARMUP_ITERATIONS = 50000;
+    private static final int MEASURED_ITERATIONS = 20000;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private Properties budget;
+    private LifeCycleInjector injector;
+
+    public static class SingletonInstance
+    {
+        @Inject
+        public SingletonInstance() { }
+    }
+
+    public static class UnscopedInstance
+    {
+        @Inject
+        public UnscopedInstance() { }
+    }
+
+    public static class UnscopedLifeCycleInstance
+    {
+        @Inject
+        public UnscopedLifeCycleInstance() { }
+
+        @PostConstruct
+        public void start() { }
+    }
+
+    @BeforeClass
+    public void setup()
+            throws IOException
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("com.sun.management.ThreadMXBean is not available");
+        }
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Thread allocated memory measurement is not supported");
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        budget = new Properties();
+        try (InputStream in = TestAllocation.class.getResourceAsStream("allocation-budget.properties")) {
+            Assert.assertNotNull(in, "allocation-budget.properties is missing");
+            budget.load(in);
+        }
+
+        injector = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(SingletonInstance.class).in(Scopes.SINGLETON);
+                binder.bind(UnscopedInstance.class);
+                binder.bind(UnscopedLifeCycleInstance.class);
+            }
+        }).initializeCloseable();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void destroy()
+            throws Exception
+    {
+        if (injector != null) {
+            injector.destroy();
+        }
+    }
+
+    @Test
+    public void testSingletonGetInstance()
+    {
+        assertWithinBudget("singleton.getInstance", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                injector.getInstance(SingletonInstance.class);
+            }
+        });
+    }
+
+    @Test
+    public void testUnscopedProvisioning()
+    {
+        assertWithinBudget("unscoped.provision", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                injector.getInstance(UnscopedInstance.class);
+            }
+        });
+    }
+
+    @Test
+    public void testUnscopedLifeCycleProvisioning()
+    {
+        assertWithinBudget("unscoped.lifecycle.provision", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                injector.getInstance(UnscopedLifeCycleInstance.class);
+            }
+        });
+    }
+
+    private void assertWithinBudget(String name, Runnable operation)
+    {
+        String limit = budget.getProperty(name);
+        Assert.assertNotNull(limit, "No allocation budget for " + name);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            operation.run();
+        }
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        long bytesPerOperation = (after - before) / MEASURED_ITERATIONS;
+        Assert.assertTrue(bytesPerOperation <= Long.parseLong(limit.trim()),
+                String.format("%s allocated %d bytes per operation, over the budget of %s bytes", name, bytesPerOperation, limit.trim()));
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@Test(singleThreaded = true)
+public class TestAsyncBootstrap
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+    private static CountDownLatch entered;
+    private static CountDownLatch released;
+    private static CountDownLatch stopped;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+        entered = new CountDownLatch(1);
+        released = new CountDownLatch(0);
+        stopped = new CountDownLatch(0);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterMethod
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    public static class BlockingService
+    {
+        @Inject
+        public BlockingService() { }
+
+        @PostConstruct
+        public void start()
+                throws InterruptedException
+        {
+            entered.countDown();
+            released.await();
+            events.add("startBlockingService");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopBlockingService");
+        }
+    }
+
+    public static class FailingStopService
+    {
+        @Inject
+        public FailingStopService() { }
+
+        @PostConstruct
+        public void start()
+                throws InterruptedException
+        {
+            entered.countDown();
+            released.await();
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            throw new IllegalStateException("failing stop");
+        }
+    }
+
+    /**
+     * Blocks until the test releases it, even if the destroy interrupts an abandoned method
+     */
+    static void awaitRelease()
+    {
+        Uninterruptibles.awaitUninterruptibly(released, 10, TimeUnit.SECONDS);
+    }
+
+    public static class SlowStopA
+    {
+        @Inject
+        public SlowStopA() { }
+
+        @PreDestroy
+        public void stop()
+        {
+            awaitRelease();
+            events.add("stopSlowStopA");
+            stopped.countDown();
+        }
+    }
+
+    public static class SlowStopB
+    {
+        @Inject
+        public SlowStopB() { }
+
+        @PreDestroy
+        public void stop()
+        {
+            awaitRelease();
+            events.add("stopSlowStopB");
+            stopped.countDown();
+        }
+    }
+
+    private static Bootstrap slowStops()
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(SlowStopA.class).in(Scopes.SINGLETON);
+                binder.bind(SlowStopB.class).in(Scopes.SINGLETON);
+            }
+        });
+    }
+
+    private static Bootstrap bootstrap()
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(BlockingService.class).in(Scopes.SINGLETON);
+            }
+        });
+    }
+
+    @Test
+    public void testInitializeAsync()
+            throws Exception
+    {
+        CloseableInjector injector = bootstrap().initializeCloseableAsync(executor).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(events, Arrays.asList("startBlockingService"));
+        injector.close();
+        Assert.assertEquals(events, Arrays.asList("startBlockingService", "stopBlockingService"));
+    }
+
+    @Test
+    public void testCancelDestroysStartedInstances()
+            throws Exception
+    {
+        released = new CountDownLatch(1);
+        CompletableFuture<CloseableInjector> future = bootstrap().initializeCloseableAsync(executor);
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(future.cancel(false));
+        released.countDown();
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(events, Arrays.asList("startBlockingService", "stopBlockingService"));
+    }
+
+    @Test
+    public void testCancelReportsDestroyFailure()
+            throws Exception
+    {
+        released = new CountDownLatch(1);
+        Bootstrap.StartingFuture<CloseableInjector> future = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(FailingStopService.class).in(Scopes.SINGLETON);
+            }
+        }).buildAsync(false, CloseableInjector.class, executor);
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(future.cancel(false));
+        released.countDown();
+        future.awaitFinished();
+
+        try {
+            future.join();
+            Assert.fail();
+        }
+        catch (CancellationException ex) {
+            Assert.assertEquals(ex.getSuppressed().length, 1);
+            Assert.assertEquals(Throwables.getRootCause(ex.getSuppressed()[0]).getMessage(), "failing stop");
+        }
+    }
+
+    @Test
+    public void testDestroyAsync()
+            throws Exception
+    {
+        CloseableInjector injector = slowStops().initializeCloseable();
+        released = new CountDownLatch(1);
+
+        // returns while the PreDestroy methods are blocked
+        CompletableFuture<Void> destroyed = injector.destroyAsync(executor);
+        Assert.assertFalse(destroyed.isDone());
+        Assert.assertEquals(events, Arrays.asList());
+
+        released.countDown();
+        destroyed.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(events, Arrays.asList("stopSlowStopB", "stopSlowStopA"));
+        Assert.assertTrue(injector.isDestroyed());
+    }
+
+    @Test
+    public void testDestroyAsyncSkipsInstancesAfterTimeout()
+            throws Exception
+    {
+        CloseableInjector injector = slowStops().initializeCloseable();
+        released = new CountDownLatch(1);
+        stopped = new CountDownLatch(1);
+
+        // fails while SlowStopB is still blocked, so the destroy doesn't wait for it
+        try {
+            injector.destroyAsync(executor, 100, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException ex) {
+            // SlowStopB is abandoned at the timeout, and SlowStopA is skipped
+            Assert.assertTrue(ex.getCause() instanceof TimeoutException);
+            Assert.assertTrue(ex.getCause().getMessage().contains("not destroyed: [" + SlowStopA.class.getName() + "]"));
+            Assert.assertTrue(ex.getCause().getMessage().contains("abandoned: [" + SlowStopB.class.getName()));
+        }
+        Assert.assertTrue(injector.isDestroyed());
+        Assert.assertEquals(events, Arrays.asList());
+
+        released.countDown();
+        Assert.assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(events, Arrays.asList("stopSlowStopB"));
+    }
+}
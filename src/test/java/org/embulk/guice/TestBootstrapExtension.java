@@ -15,12 +15,19 @@
  */
 package org.embulk.guice;
 
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Binder;
+import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import javax.inject.Inject;
+import java.util.List;
+import java.util.function.Function;
 
 public class TestBootstrapExtension
 {
@@ -132,4 +139,40 @@ public class TestBootstrapExtension
         Interface1 iface = bootstrap.initialize().getInstance(Interface1.class);
         Assert.assertEquals(iface.get(), 2);
     }
+
+    private static Module constants(final String value, final String... names)
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                for (String name : names) {
+                    binder.bindConstant().annotatedWith(Names.named(name)).to(value);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testChainedOverrideModules()
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(constants("base", "a", "b", "c", "d"))
+            .overrideModulesWith(constants("first", "a", "b"))
+            .overrideModulesWith(constants("second", "b"))
+            .overrideModules(new Function<List<Module>, List<Module>>() {
+                public List<Module> apply(List<Module> modules)
+                {
+                    return ImmutableList.of(Modules.override(modules).with(constants("function", "a", "c")));
+                }
+            })
+            .overrideModulesWith(constants("third", "c"));
+
+        Injector injector = bootstrap.initialize();
+        Assert.assertEquals(injector.getInstance(Key.get(String.class, Names.named("a"))), "function");
+        Assert.assertEquals(injector.getInstance(Key.get(String.class, Names.named("b"))), "second");
+        Assert.assertEquals(injector.getInstance(Key.get(String.class, Names.named("c"))), "third");
+        Assert.assertEquals(injector.getInstance(Key.get(String.class, Names.named("d"))), "base");
+    }
 }
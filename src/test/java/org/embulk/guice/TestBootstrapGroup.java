@@ -0,0 +1,255 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.inject.Binder;
+import com.google.inject.CreationException;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Test(singleThreaded = true)
+public class TestBootstrapGroup
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+    private static CountDownLatch starting;
+    private static CountDownLatch stopping;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+        starting = new CountDownLatch(0);
+        stopping = new CountDownLatch(0);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterMethod
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Waits until the others count down the latch too, which never happens if they run serially
+     */
+    static void awaitOthers(CountDownLatch latch, String event)
+    {
+        latch.countDown();
+        try {
+            if (latch.await(5, TimeUnit.SECONDS)) {
+                events.add(event);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public abstract static class SlowService
+    {
+        @PostConstruct
+        public void start()
+        {
+            awaitOthers(starting, "start" + getClass().getSimpleName());
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            awaitOthers(stopping, "stop" + getClass().getSimpleName());
+        }
+    }
+
+    public static class ServiceA
+            extends SlowService
+    {
+        @Inject
+        public ServiceA() { }
+    }
+
+    public static class ServiceB
+            extends SlowService
+    {
+        @Inject
+        public ServiceB() { }
+    }
+
+    public static class ServiceC
+            extends SlowService
+    {
+        @Inject
+        public ServiceC() { }
+    }
+
+    public static class FailingService
+    {
+        @Inject
+        public FailingService()
+        {
+            TestConcurrentLifeCycle.sleep(600);
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    public static class LateService
+    {
+        @Inject
+        public LateService() { }
+
+        @PostConstruct
+        public void start()
+        {
+            TestConcurrentLifeCycle.sleep(900);
+            events.add("startLateService");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopLateService");
+        }
+    }
+
+    private static Bootstrap bootstrap(final Class<?> clazz)
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(clazz).in(Scopes.SINGLETON);
+            }
+        });
+    }
+
+    @Test
+    public void testInitializeAndDestroyConcurrently()
+            throws Exception
+    {
+        BootstrapGroup group = new BootstrapGroup(bootstrap(ServiceA.class), bootstrap(ServiceB.class), bootstrap(ServiceC.class));
+        starting = new CountDownLatch(3);
+        stopping = new CountDownLatch(3);
+
+        // each service records its event only if all of them are running at once
+        List<LifeCycleInjector> injectors = group.initialize(executor);
+        Assert.assertEquals(injectors.size(), 3);
+        Assert.assertNotNull(injectors.get(1).getInstance(ServiceB.class));
+        Assert.assertEquals(Sets.newHashSet(events), Sets.newHashSet("startServiceA", "startServiceB", "startServiceC"));
+
+        group.destroy();
+        Assert.assertEquals(events.size(), 6);
+        for (LifeCycleInjector injector : injectors) {
+            Assert.assertTrue(injector.isDestroyed());
+        }
+    }
+
+    @Test
+    public void testFailureDestroysInitializedInjectors()
+            throws Exception
+    {
+        BootstrapGroup group = new BootstrapGroup(bootstrap(ServiceA.class), bootstrap(FailingService.class), bootstrap(ServiceB.class));
+
+        try {
+            group.initialize(executor);
+            Assert.fail();
+        }
+        catch (CreationException ex) {
+            Assert.assertTrue(ex.getMessage().contains("failing"));
+        }
+        Assert.assertEquals(Sets.newHashSet(events),
+                Sets.newHashSet("startServiceA", "startServiceB", "stopServiceA", "stopServiceB"));
+    }
+
+    @Test
+    public void testFailureWaitsForRollbackOfCancelledBootstraps()
+            throws Exception
+    {
+        // LateService is still starting when FailingService fails, and is destroyed when the startup is aborted
+        BootstrapGroup group = new BootstrapGroup(bootstrap(FailingService.class), bootstrap(LateService.class));
+
+        try {
+            group.initialize(executor);
+            Assert.fail();
+        }
+        catch (CreationException ex) {
+            Assert.assertTrue(ex.getMessage().contains("failing"));
+        }
+        Assert.assertEquals(events, Arrays.asList("startLateService", "stopLateService"));
+    }
+
+    @Test
+    public void testDestroyRemovesShutdownHooks()
+            throws Exception
+    {
+        BootstrapGroup group = new BootstrapGroup(bootstrap(ServiceA.class), bootstrap(ServiceB.class));
+        List<LifeCycleManager> managers = Lists.newArrayList();
+        for (LifeCycleInjector injector : group.initialize(executor)) {
+            managers.add(injector.getInstance(LifeCycleManager.class));
+        }
+        for (LifeCycleManager manager : managers) {
+            Assert.assertTrue(manager.hasShutdownHook());
+        }
+
+        group.destroy();
+        for (LifeCycleManager manager : managers) {
+            Assert.assertFalse(manager.hasShutdownHook());
+        }
+    }
+
+    @Test
+    public void testRejectSharedLifeCycleExecutor()
+            throws Exception
+    {
+        BootstrapGroup group = new BootstrapGroup(bootstrap(ServiceA.class),
+                bootstrap(ServiceB.class).runLifeCycleConcurrently(executor));
+        try {
+            group.initialize(executor);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException ex) {
+            // expected
+        }
+        Assert.assertEquals(events, Arrays.asList());
+
+        group = new BootstrapGroup(bootstrap(ServiceA.class).runLifeCycleConcurrently());
+        try {
+            group.initialize(LifeCycleExecutors.getDefault());
+            Assert.fail();
+        }
+        catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Binder;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Provides;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Test(singleThreaded = true)
+public class TestChildLifeCycleInjector
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+    }
+
+    public static class Database
+    {
+        @Inject
+        public Database() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startDatabase");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopDatabase");
+        }
+    }
+
+    public static class Job
+    {
+        private final Database database;
+
+        @Inject
+        public Job(Database database)
+        {
+            this.database = database;
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startJob");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopJob");
+        }
+    }
+
+    private static Module singletons(final Class<?>... classes)
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                for (Class<?> clazz : classes) {
+                    binder.bind(clazz).in(Scopes.SINGLETON);
+                }
+            }
+        };
+    }
+
+    public static class ExecutorModule
+            extends AbstractModule
+    {
+        @Override
+        protected void configure() { }
+
+        @Provides
+        @Singleton
+        public ExecutorService getExecutor()
+        {
+            return Executors.newSingleThreadExecutor();
+        }
+    }
+
+    public static class ChildExecutorModule
+            extends AbstractModule
+    {
+        @Override
+        protected void configure() { }
+
+        @Provides
+        @Singleton
+        @Named("child")
+        public ExecutorService getExecutor()
+        {
+            return Executors.newSingleThreadExecutor();
+        }
+    }
+
+    @Test
+    public void testChildShutsDownItsOwnExecutorServices()
+            throws Exception
+    {
+        CloseableInjector parent = new Bootstrap(new ExecutorModule())
+            .shutdownExecutorServices(5, TimeUnit.SECONDS)
+            .initializeCloseable();
+        ExecutorService parentExecutor = parent.getInstance(ExecutorService.class);
+
+        for (int i = 0; i < 3; i++) {
+            // the child inherits shutdownExecutorServices of the parent
+            CloseableInjector child = parent.createChildLifeCycleInjector(new ChildExecutorModule());
+            ExecutorService childExecutor = child.getInstance(Key.get(ExecutorService.class, Names.named("child")));
+            child.close();
+            Assert.assertTrue(childExecutor.isShutdown());
+        }
+        Assert.assertFalse(parentExecutor.isShutdown());
+
+        parent.close();
+        Assert.assertTrue(parentExecutor.isShutdown());
+    }
+
+    @Test
+    public void testParentManagesInstancesOfPlainChildInjectors()
+            throws Exception
+    {
+        CloseableInjector parent = new Bootstrap(singletons(Database.class)).initializeCloseable();
+        Injector child = parent.createChildInjector(singletons(Job.class));
+        child.getInstance(Job.class);
+        Assert.assertEquals(events, Arrays.asList("startDatabase", "startJob"));
+
+        parent.close();
+        Assert.assertEquals(events, Arrays.asList("startDatabase", "startJob", "stopJob", "stopDatabase"));
+    }
+
+    @Test
+    public void testDestroyChildIndependently()
+            throws Exception
+    {
+        CloseableInjector parent = new Bootstrap(singletons(Database.class)).initializeCloseable();
+        LifeCycleManager lifeCycleManager = parent.getInstance(LifeCycleManager.class);
+        int size = lifeCycleManager.size();
+
+        for (int i = 0; i < 2; i++) {
+            events.clear();
+            try (CloseableInjector child = parent.createChildLifeCycleInjector(singletons(Job.class))) {
+                Job job = child.getInstance(Job.class);
+                Assert.assertSame(job.database, parent.getInstance(Database.class));
+                Assert.assertEquals(lifeCycleManager.size(), size);
+            }
+            Assert.assertEquals(events, Arrays.asList("startJob", "stopJob"));
+        }
+
+        events.clear();
+        parent.close();
+        Assert.assertEquals(events, Arrays.asList("stopDatabase"));
+    }
+
+    @Test
+    public void testParentDestroysLiveChildrenFirst()
+            throws Exception
+    {
+        CloseableInjector parent = new Bootstrap(singletons(Database.class)).initializeCloseable();
+        CloseableInjector first = new Bootstrap(singletons(Job.class))
+            .initializeChild(parent);
+        CloseableInjector second = new Bootstrap(singletons(Job.class))
+            .initializeChild(parent);
+        CloseableInjector closed = parent.createChildLifeCycleInjector(singletons(Job.class));
+        closed.close();
+        events.clear();
+
+        parent.close();
+        Assert.assertEquals(events, Arrays.asList("stopJob", "stopJob", "stopDatabase"));
+        Assert.assertTrue(first.isDestroyed());
+        Assert.assertTrue(second.isDestroyed());
+
+        try {
+            parent.createChildLifeCycleInjector(singletons(Job.class));
+            Assert.fail();
+        }
+        catch (IllegalStateException ex) {
+        }
+    }
+
+    public static class Task
+    {
+        @Inject
+        public Task(Job job) { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startTask");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopTask");
+        }
+    }
+
+    @Test
+    public void testChildDestroysGrandchildrenFirst()
+            throws Exception
+    {
+        CloseableInjector parent = new Bootstrap(singletons(Database.class)).initializeCloseable();
+        CloseableInjector child = parent.createChildLifeCycleInjector(singletons(Job.class));
+        CloseableInjector grandchild = child.createChildLifeCycleInjector(singletons(Task.class));
+        Assert.assertEquals(events, Arrays.asList("startDatabase", "startJob", "startTask"));
+        events.clear();
+
+        child.close();
+        Assert.assertEquals(events, Arrays.asList("stopTask", "stopJob"));
+
+        events.clear();
+        parent.close();
+        Assert.assertEquals(events, Arrays.asList("stopDatabase"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestClassPreload
+{
+    private Path dir;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception
+    {
+        dir = Files.createTempDirectory("preload");
+    }
+
+    @AfterMethod
+    public void cleanup()
+            throws Exception
+    {
+        Files.deleteIfExists(dir.resolve("classes.txt"));
+        Files.delete(dir);
+    }
+
+    public interface Storage
+    {
+    }
+
+    public static class Codec
+    {
+        @Inject
+        public Codec() { }
+    }
+
+    public static class FileStorage
+            implements Storage
+    {
+        @Inject
+        public FileStorage(Codec codec) { }
+    }
+
+    private static Bootstrap bootstrap()
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Storage.class).to(FileStorage.class).in(Scopes.SINGLETON);
+                binder.bind(Codec.class);
+            }
+        });
+    }
+
+    private static class CountingExecutor
+            implements Executor
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            count.incrementAndGet();
+            command.run();
+        }
+    }
+
+    @Test
+    public void testRecordAndPreload()
+            throws Exception
+    {
+        Path file = dir.resolve("classes.txt");
+
+        CountingExecutor executor = new CountingExecutor();
+        bootstrap().preloadClasses(file, executor).initializeCloseable().close();
+        Assert.assertEquals(executor.count.get(), 0);
+
+        List<String> classNames = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertTrue(classNames.contains(Storage.class.getName()));
+        Assert.assertTrue(classNames.contains(FileStorage.class.getName()));
+        Assert.assertTrue(classNames.contains(Codec.class.getName()));
+        Assert.assertFalse(classNames.contains(Object.class.getName()));
+
+        Files.write(file, "no.such.Class\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        bootstrap().preloadClasses(file, executor).initializeCloseable().close();
+        Assert.assertTrue(executor.count.get() > 0);
+        Assert.assertTrue(Files.readAllLines(file, StandardCharsets.UTF_8).contains("no.such.Class"));
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Sets;
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Test(singleThreaded = true)
+public class TestConcurrentLifeCycle
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+    private static CountDownLatch running;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+        running = new CountDownLatch(0);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records the event only when as many methods as the count of {@code running} are running at once,
+     * which never happens if they are called serially
+     */
+    static void awaitOthers(String event)
+    {
+        running.countDown();
+        try {
+            if (running.await(5, TimeUnit.SECONDS)) {
+                events.add(event);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public abstract static class SlowService
+    {
+        @PostConstruct
+        public void start()
+        {
+            awaitOthers("start" + getClass().getSimpleName());
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stop" + getClass().getSimpleName());
+        }
+    }
+
+    public static class ServiceA
+            extends SlowService
+    {
+        @Inject
+        public ServiceA() { }
+    }
+
+    public static class ServiceB
+            extends SlowService
+    {
+        @Inject
+        public ServiceB() { }
+    }
+
+    public static class ServiceC
+            extends SlowService
+    {
+        @Inject
+        public ServiceC() { }
+    }
+
+    public static class DependentService
+            extends SlowService
+    {
+        @Inject
+        public DependentService(ServiceA a, ServiceB b) { }
+    }
+
+    public static class FailingService
+    {
+        @Inject
+        public FailingService(ServiceA a) { }
+
+        @PostConstruct
+        public void start()
+        {
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    public abstract static class SlowStopService
+    {
+        @PreDestroy
+        public void stop()
+        {
+            awaitOthers("stop" + getClass().getSimpleName());
+        }
+    }
+
+    public static class StopA
+            extends SlowStopService
+    {
+        @Inject
+        public StopA() { }
+    }
+
+    public static class StopB
+            extends SlowStopService
+    {
+        @Inject
+        public StopB() { }
+    }
+
+    public static class StopDependent
+    {
+        @Inject
+        public StopDependent(StopA a, StopB b) { }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopStopDependent");
+        }
+    }
+
+    public static class FailingStopA
+    {
+        @Inject
+        public FailingStopA() { }
+
+        @PreDestroy
+        public void stop()
+        {
+            throw new IllegalStateException("failingA");
+        }
+    }
+
+    public static class FailingStopB
+    {
+        @Inject
+        public FailingStopB() { }
+
+        @PreDestroy
+        public void stop()
+        {
+            throw new IllegalStateException("failingB");
+        }
+    }
+
+    @LifeCyclePhase(10)
+    public static class NetworkListener
+    {
+        @Inject
+        public NetworkListener(ServiceA a) { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startNetworkListener");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopNetworkListener");
+        }
+    }
+
+    @LifeCyclePhase(1)
+    public static class MiddleService
+            extends SlowService
+    {
+        @Inject
+        public MiddleService() { }
+    }
+
+    @LifeCyclePhase(0)
+    public static class ZeroPhaseService
+    {
+        @Inject
+        public ZeroPhaseService() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startZeroPhaseService");
+        }
+    }
+
+    private static Module services(final Class<?>... classes)
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                for (Class<?> clazz : classes) {
+                    binder.bind(clazz).in(Scopes.SINGLETON);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testPostConstructConcurrently()
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(services(DependentService.class, ServiceA.class, ServiceB.class, ServiceC.class))
+            .postConstructConcurrently(executor);
+        running = new CountDownLatch(3);
+
+        CloseableInjector injector = bootstrap.initializeCloseable();
+        Assert.assertEquals(events.size(), 4);
+        Assert.assertEquals(events.get(3), "startDependentService");
+
+        injector.close();
+        Assert.assertEquals(events.size(), 8);
+        Assert.assertTrue(events.indexOf("stopDependentService") < events.indexOf("stopServiceA"));
+        Assert.assertTrue(events.indexOf("stopDependentService") < events.indexOf("stopServiceB"));
+    }
+
+    @Test
+    public void testPostConstructFailure()
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(services(FailingService.class, ServiceA.class))
+            .postConstructConcurrently(executor);
+
+        try {
+            bootstrap.initializeCloseable();
+            Assert.fail();
+        }
+        catch (IllegalStateException ex) {
+            Assert.assertEquals(ex.getMessage(), "failing");
+        }
+        Assert.assertEquals(events, Arrays.asList("startServiceA"));
+    }
+
+    @Test
+    public void testPreDestroyConcurrently()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(services(StopDependent.class, StopA.class, StopB.class))
+            .preDestroyConcurrently(executor)
+            .initializeCloseable();
+        running = new CountDownLatch(2);
+
+        injector.close();
+        Assert.assertEquals(events.size(), 3);
+        Assert.assertEquals(events.get(0), "stopStopDependent");
+    }
+
+    @Test
+    public void testPreDestroyReportsAllFailures()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(services(FailingStopA.class, StopA.class, FailingStopB.class))
+            .preDestroyConcurrently(executor)
+            .initializeCloseable();
+
+        try {
+            injector.close();
+            Assert.fail();
+        }
+        catch (IllegalStateException ex) {
+            Assert.assertEquals(ex.getSuppressed().length, 1);
+            Assert.assertEquals(Sets.newHashSet(ex.getMessage(), ex.getSuppressed()[0].getMessage()),
+                    Sets.newHashSet("failingA", "failingB"));
+        }
+        Assert.assertEquals(events, Arrays.asList("stopStopA"));
+        Assert.assertTrue(injector.isDestroyed());
+    }
+
+    @Test
+    public void testPhases()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(services(NetworkListener.class, ServiceA.class, ServiceB.class, MiddleService.class))
+            .postConstructConcurrently(executor)
+            .preDestroyConcurrently(executor)
+            .initializeCloseable();
+
+        Assert.assertEquals(Sets.newHashSet(events.subList(0, 2)), Sets.newHashSet("startServiceA", "startServiceB"));
+        Assert.assertEquals(events.get(2), "startMiddleService");
+        Assert.assertEquals(events.get(3), "startNetworkListener");
+
+        injector.close();
+        Assert.assertEquals(events.get(4), "stopNetworkListener");
+        Assert.assertEquals(events.get(5), "stopMiddleService");
+        Assert.assertEquals(Sets.newHashSet(events.subList(6, 8)), Sets.newHashSet("stopServiceA", "stopServiceB"));
+    }
+
+    @Test
+    public void testRejectPhaseZero()
+            throws Exception
+    {
+        try {
+            new Bootstrap(services(ZeroPhaseService.class)).initializeCloseable();
+            Assert.fail();
+        }
+        catch (RuntimeException ex) {
+            Throwable cause = ex;
+            while (cause.getCause() != null && !(cause instanceof IllegalArgumentException)) {
+                cause = cause.getCause();
+            }
+            Assert.assertTrue(cause instanceof IllegalArgumentException, String.valueOf(ex));
+            Assert.assertTrue(cause.getMessage().contains(ZeroPhaseService.class.getName()));
+        }
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testRunLifeCycleOnDefaultExecutor()
+            throws Exception
+    {
+        running = new CountDownLatch(3);
+        CloseableInjector injector = new Bootstrap(services(DependentService.class, ServiceA.class, ServiceB.class, ServiceC.class))
+            .runLifeCycleConcurrently()
+            .initializeCloseable();
+
+        Assert.assertEquals(events.size(), 4);
+        Assert.assertEquals(events.get(3), "startDependentService");
+
+        injector.close();
+        Assert.assertEquals(events.get(4), "stopDependentService");
+        Assert.assertEquals(events.size(), 8);
+    }
+
+    @Test
+    public void testPhasesWithoutExecutor()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(services(NetworkListener.class, ServiceA.class))
+            .initializeCloseable();
+
+        Assert.assertEquals(events, Arrays.asList("startServiceA", "startNetworkListener"));
+
+        injector.close();
+        Assert.assertEquals(events.subList(2, 4), Arrays.asList("stopNetworkListener", "stopServiceA"));
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.ProvisionException;
+import com.google.inject.Scopes;
+import com.google.inject.Stage;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Test(singleThreaded = true)
+public class TestConcurrentSingletons
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+    private static CountDownLatch constructing;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+        constructing = new CountDownLatch(0);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Records the event only when as many constructors as the count of {@code constructing} are running at once,
+     * which never happens if they are called serially
+     */
+    static void awaitOthers(String event)
+    {
+        constructing.countDown();
+        try {
+            if (constructing.await(5, TimeUnit.SECONDS)) {
+                events.add(event);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class SlowA
+    {
+        @Inject
+        public SlowA()
+        {
+            awaitOthers("SlowA");
+        }
+    }
+
+    public static class SlowB
+    {
+        @Inject
+        public SlowB()
+        {
+            awaitOthers("SlowB");
+        }
+    }
+
+    public static class SlowC
+    {
+        @Inject
+        public SlowC()
+        {
+            awaitOthers("SlowC");
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startSlowC");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopSlowC");
+        }
+    }
+
+    public static class Dependent
+    {
+        private final SlowA a;
+        private final SlowB b;
+
+        @Inject
+        public Dependent(SlowA a, SlowB b)
+        {
+            this.a = a;
+            this.b = b;
+            events.add("Dependent");
+        }
+    }
+
+    public static class HealthCheck
+    {
+        @Inject
+        public HealthCheck() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startHealthCheck");
+        }
+    }
+
+    public static class Eager
+    {
+        private final Thread thread = Thread.currentThread();
+
+        @Inject
+        public Eager()
+        {
+            events.add("Eager");
+        }
+    }
+
+    public static class Failing
+    {
+        @Inject
+        public Failing()
+        {
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    @Test
+    public void testInstantiatesIndependentSingletonsConcurrently()
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Dependent.class).in(Scopes.SINGLETON);
+                binder.bind(SlowA.class).in(Scopes.SINGLETON);
+                binder.bind(SlowB.class).in(Scopes.SINGLETON);
+                binder.bind(SlowC.class).in(Scopes.SINGLETON);
+            }
+        }).instantiateSingletonsConcurrently(executor);
+        constructing = new CountDownLatch(3);
+
+        CloseableInjector injector = bootstrap.initializeCloseable();
+        Assert.assertEquals(events.size(), 5);
+        Assert.assertTrue(events.indexOf("Dependent") > events.indexOf("SlowA"));
+        Assert.assertTrue(events.indexOf("Dependent") > events.indexOf("SlowB"));
+        Assert.assertTrue(events.indexOf("startSlowC") > events.indexOf("SlowC"));
+
+        Dependent dependent = injector.getInstance(Dependent.class);
+        Assert.assertSame(dependent.a, injector.getInstance(SlowA.class));
+        Assert.assertSame(dependent.b, injector.getInstance(SlowB.class));
+        Assert.assertEquals(events.size(), 5);
+
+        injector.close();
+        Assert.assertEquals(events.get(events.size() - 1), "stopSlowC");
+    }
+
+    @Test
+    public void testPropagatesProvisionFailure()
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(SlowA.class).in(Scopes.SINGLETON);
+                binder.bind(Failing.class).in(Scopes.SINGLETON);
+            }
+        }).instantiateSingletonsConcurrently(executor);
+
+        try {
+            bootstrap.initializeCloseable();
+            Assert.fail();
+        }
+        catch (ProvisionException ex) {
+            Assert.assertTrue(ex.getMessage().contains("failing"));
+        }
+    }
+
+    @Test
+    public void testInitializeInBackground()
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Dependent.class).in(Scopes.SINGLETON);
+                binder.bind(SlowA.class).in(Scopes.SINGLETON);
+                binder.bind(SlowB.class).in(Scopes.SINGLETON);
+                binder.bind(SlowC.class).in(Scopes.SINGLETON);
+                binder.bind(HealthCheck.class).in(Scopes.SINGLETON);
+            }
+        });
+
+        // the slow singletons are blocked until the test counts down
+        constructing = new CountDownLatch(4);
+        LifeCycleInjector injector = bootstrap.initializeInBackground(executor);
+
+        HealthCheck healthCheck = injector.whenReady(HealthCheck.class).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(events.contains("startHealthCheck"));
+        Assert.assertFalse(events.contains("Dependent"));
+        Assert.assertSame(healthCheck, injector.getInstance(HealthCheck.class));
+        constructing.countDown();
+
+        Dependent dependent = injector.whenReady(Dependent.class).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(events.contains("SlowA"));
+        Assert.assertTrue(events.contains("SlowB"));
+        Assert.assertSame(dependent.a, injector.getInstance(SlowA.class));
+
+        injector.whenStarted().get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(events.contains("startSlowC"));
+
+        injector.destroy();
+        Assert.assertTrue(events.contains("stopSlowC"));
+    }
+
+    @Test
+    public void testWhenReadyOfInitializedInjector()
+            throws Exception
+    {
+        LifeCycleInjector injector = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(HealthCheck.class).in(Scopes.SINGLETON);
+            }
+        }).initializeCloseable();
+
+        Assert.assertSame(injector.whenReady(HealthCheck.class).getNow(null), injector.getInstance(HealthCheck.class));
+        Assert.assertTrue(injector.whenStarted().isDone());
+        injector.destroy();
+    }
+
+    @Test
+    public void testStageAndEagerSingletons()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(SlowA.class).in(Scopes.SINGLETON);
+                binder.bind(SlowB.class).in(Scopes.SINGLETON);
+                binder.bind(Eager.class).asEagerSingleton();
+            }
+        }).instantiateSingletonsConcurrently(executor).initializeCloseable();
+
+        // the injector is created in Stage.DEVELOPMENT, and eager singletons are instantiated by Guice.createInjector
+        Assert.assertEquals(injector.getInstance(Stage.class), Stage.DEVELOPMENT);
+        Assert.assertEquals(events.get(0), "Eager");
+        Assert.assertSame(injector.getInstance(Eager.class).thread, Thread.currentThread());
+        Assert.assertEquals(events.size(), 3);
+        injector.close();
+    }
+}
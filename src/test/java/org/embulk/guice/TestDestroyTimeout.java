@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@Test(singleThreaded = true)
+public class TestDestroyTimeout
+{
+    private static volatile List<String> events;
+    private static CountDownLatch released;
+    private static CountDownLatch stopped;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        events = new CopyOnWriteArrayList<>();
+        released = new CountDownLatch(1);
+        stopped = new CountDownLatch(1);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterMethod
+    public void shutdown()
+    {
+        released.countDown();
+        executor.shutdownNow();
+    }
+
+    public static class Normal
+    {
+        @Inject
+        public Normal() { }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopNormal");
+        }
+    }
+
+    public static class Stuck
+    {
+        @Inject
+        public Stuck() { }
+
+        /**
+         * Blocks until the test releases it. A destroy that waits for it records stopStuck before returning.
+         * The abandoned method records to the test that called it, not to the later tests.
+         */
+        @PreDestroy
+        public void stop()
+                throws InterruptedException
+        {
+            List<String> recorded = events;
+            CountDownLatch done = stopped;
+            released.await(10, TimeUnit.SECONDS);
+            recorded.add("stopStuck");
+            done.countDown();
+        }
+    }
+
+    public static class StuckToo
+            extends Stuck
+    {
+        @Inject
+        public StuckToo() { }
+    }
+
+    private static Bootstrap bootstrap()
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Normal.class).in(Scopes.SINGLETON);
+                binder.bind(Stuck.class).in(Scopes.SINGLETON);
+            }
+        });
+    }
+
+    private static void assertAbandonedStuck(TimeoutException ex)
+    {
+        Assert.assertTrue(ex.getMessage().contains("not destroyed: []"));
+        Assert.assertTrue(ex.getMessage().contains("abandoned: [" + Stuck.class.getName() + " after "));
+        Assert.assertEquals(ex.getSuppressed().length, 1);
+        boolean inStop = false;
+        for (StackTraceElement element : ex.getSuppressed()[0].getStackTrace()) {
+            if (element.getClassName().equals(Stuck.class.getName()) && element.getMethodName().equals("stop")) {
+                inStop = true;
+            }
+        }
+        Assert.assertTrue(inStop, "stack trace of the abandoned PreDestroy method is not reported");
+    }
+
+    @Test
+    public void testAbandonInstanceAfterTimeout()
+            throws Exception
+    {
+        CloseableInjector injector = bootstrap()
+            .destroyTimeout(100, 0, TimeUnit.MILLISECONDS)
+            .initializeCloseable();
+
+        try {
+            injector.close();
+            Assert.fail();
+        }
+        catch (TimeoutException ex) {
+            assertAbandonedStuck(ex);
+        }
+
+        Assert.assertEquals(events, Arrays.asList("stopNormal"), "destroy waited for the stuck instance");
+        Assert.assertTrue(injector.isDestroyed());
+    }
+
+    @Test
+    public void testAbandonConcurrentInstancesAtDeadline()
+            throws Exception
+    {
+        CloseableInjector injector = bootstrap()
+            .preDestroyConcurrently(executor)
+            .destroyTimeout(0, 200, TimeUnit.MILLISECONDS)
+            .initializeCloseable();
+
+        try {
+            injector.close();
+            Assert.fail();
+        }
+        catch (TimeoutException ex) {
+            assertAbandonedStuck(ex);
+        }
+
+        Assert.assertEquals(events, Arrays.asList("stopNormal"), "destroy waited for the stuck instance");
+
+        released.countDown();
+        Assert.assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(events, Arrays.asList("stopNormal", "stopStuck"));
+    }
+
+    @Test
+    public void testSkipInstancesQueuedOnBoundedExecutor()
+            throws Exception
+    {
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        try {
+            CloseableInjector injector = new Bootstrap(new Module()
+            {
+                @Override
+                public void configure(Binder binder)
+                {
+                    binder.bind(Stuck.class).in(Scopes.SINGLETON);
+                    binder.bind(StuckToo.class).in(Scopes.SINGLETON);
+                }
+            })
+                .preDestroyConcurrently(singleThread)
+                .destroyTimeout(100, 0, TimeUnit.MILLISECONDS)
+                .initializeCloseable();
+
+            try {
+                injector.close();
+                Assert.fail();
+            }
+            catch (TimeoutException ex) {
+                Assert.assertFalse(ex.getMessage().contains("not destroyed: []"), ex.getMessage());
+                Assert.assertFalse(ex.getMessage().contains("abandoned: []"), ex.getMessage());
+            }
+
+            Assert.assertEquals(events, Arrays.asList(), "destroy waited for a thread of the executor");
+        }
+        finally {
+            singleThread.shutdownNow();
+        }
+    }
+}
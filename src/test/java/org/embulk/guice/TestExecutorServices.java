@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Key;
+import com.google.inject.Provides;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class TestExecutorServices
+{
+    private static final ExecutorService SHARED = Executors.newSingleThreadExecutor();
+
+    private static final Runnable NOTHING = new Runnable() {
+        public void run()
+        {
+        }
+    };
+
+    // counted down by shutdown() of the executors of ExecutorModule
+    private static CountDownLatch shutdowns;
+    // counted down by tasks that saw the awaited event
+    private static CountDownLatch seen;
+
+    @BeforeMethod
+    public void setup()
+    {
+        shutdowns = new CountDownLatch(2);
+        seen = new CountDownLatch(2);
+    }
+
+    public static class ExecutorModule
+            extends AbstractModule
+    {
+        private final Runnable task;
+
+        public ExecutorModule(Runnable task)
+        {
+            this.task = task;
+        }
+
+        @Override
+        protected void configure() { }
+
+        @Provides
+        @Singleton
+        @Named("a")
+        public ExecutorService getExecutorA()
+        {
+            return busyExecutor(task);
+        }
+
+        @Provides
+        @Singleton
+        @Named("b")
+        public ExecutorService getExecutorB()
+        {
+            return busyExecutor(task);
+        }
+
+        @Provides
+        @Named("shared")
+        public ExecutorService getSharedExecutor()
+        {
+            return SHARED;
+        }
+    }
+
+    public static class FailingStop
+    {
+        @Inject
+        public FailingStop() { }
+
+        @PreDestroy
+        public void stop()
+        {
+            throw new IllegalStateException("failing stop");
+        }
+    }
+
+    private static ExecutorService busyExecutor(Runnable task)
+    {
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>())
+        {
+            @Override
+            public void shutdown()
+            {
+                shutdowns.countDown();
+                super.shutdown();
+            }
+        };
+        executor.submit(task);
+        return executor;
+    }
+
+    private static ExecutorService executor(LifeCycleInjector injector, String name)
+    {
+        return injector.getInstance(Key.get(ExecutorService.class, Names.named(name)));
+    }
+
+    @Test
+    public void testAwaitsExecutorServicesTogether()
+            throws Exception
+    {
+        // each task runs until both executors are shut down, which never happens if they are awaited one by one
+        CloseableInjector injector = new Bootstrap(new ExecutorModule(new Runnable() {
+                public void run()
+                {
+                    try {
+                        if (shutdowns.await(3, TimeUnit.SECONDS)) {
+                            seen.countDown();
+                        }
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }))
+            .shutdownExecutorServices(5, TimeUnit.SECONDS)
+            .initializeCloseable();
+        ExecutorService a = executor(injector, "a");
+        ExecutorService b = executor(injector, "b");
+
+        injector.close();
+        Assert.assertEquals(seen.getCount(), 0, "executors were awaited one by one");
+        Assert.assertTrue(a.isTerminated());
+        Assert.assertTrue(b.isTerminated());
+    }
+
+    @Test
+    public void testShutdownNowAfterTimeout()
+            throws Exception
+    {
+        // each task runs until shutdownNow() interrupts it
+        CloseableInjector injector = new Bootstrap(new ExecutorModule(new Runnable() {
+                public void run()
+                {
+                    try {
+                        Thread.sleep(30000);
+                    }
+                    catch (InterruptedException ex) {
+                        seen.countDown();
+                    }
+                }
+            }))
+            .shutdownExecutorServices(100, TimeUnit.MILLISECONDS)
+            .initializeCloseable();
+        ExecutorService a = executor(injector, "a");
+        ExecutorService b = executor(injector, "b");
+
+        injector.close();
+        Assert.assertTrue(seen.await(5, TimeUnit.SECONDS), "running tasks were not interrupted");
+        Assert.assertTrue(a.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(b.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExecutorServicesAreNotManagedByDefault()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(new ExecutorModule(NOTHING)).initializeCloseable();
+        ExecutorService a = executor(injector, "a");
+
+        injector.close();
+        Assert.assertFalse(a.isShutdown());
+        a.shutdown();
+    }
+
+    @Test
+    public void testUnscopedExecutorServicesAreNotShutDown()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(new ExecutorModule(NOTHING))
+            .shutdownExecutorServices(5, TimeUnit.SECONDS)
+            .initializeCloseable();
+        Assert.assertSame(executor(injector, "shared"), SHARED);
+        ExecutorService a = executor(injector, "a");
+
+        injector.close();
+        Assert.assertTrue(a.isTerminated());
+        Assert.assertFalse(SHARED.isShutdown());
+    }
+
+    @Test
+    public void testShutdownAfterPreDestroyFailure()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(new ExecutorModule(NOTHING), new AbstractModule()
+        {
+            @Override
+            protected void configure()
+            {
+                bind(FailingStop.class).in(Scopes.SINGLETON);
+            }
+        })
+            .shutdownExecutorServices(5, TimeUnit.SECONDS)
+            .initializeCloseable();
+        ExecutorService a = executor(injector, "a");
+        injector.getInstance(FailingStop.class);
+
+        try {
+            injector.close();
+            Assert.fail();
+        }
+        catch (InvocationTargetException ex) {
+            Assert.assertEquals(ex.getCause().getMessage(), "failing stop");
+        }
+        Assert.assertTrue(a.isShutdown());
+        Assert.assertTrue(injector.isDestroyed());
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Test(singleThreaded = true)
+public class TestFailFast
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterMethod
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    public static class Started
+    {
+        @Inject
+        public Started() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startStarted");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopStarted");
+        }
+    }
+
+    public static class StartedFirst
+    {
+        @Inject
+        public StartedFirst() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startStartedFirst");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopStartedFirst");
+        }
+    }
+
+    public static class Failing
+    {
+        @Inject
+        public Failing() { }
+
+        @PostConstruct
+        public void start()
+        {
+            TestConcurrentLifeCycle.sleep(100);
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    public static class Blocking
+    {
+        @Inject
+        public Blocking() { }
+
+        @PostConstruct
+        public void start()
+        {
+            try {
+                Thread.sleep(10000);
+                events.add("startBlocking");
+            }
+            catch (InterruptedException ex) {
+                events.add("interruptedBlocking");
+            }
+        }
+    }
+
+    public static class Pending
+    {
+        @Inject
+        public Pending() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startPending");
+        }
+    }
+
+    @LifeCyclePhase(1)
+    public static class PhasedFailing
+            extends Failing
+    {
+        @Inject
+        public PhasedFailing() { }
+    }
+
+    @LifeCyclePhase(1)
+    public static class PhasedBlocking
+            extends Blocking
+    {
+        @Inject
+        public PhasedBlocking() { }
+    }
+
+    @LifeCyclePhase(1)
+    public static class PhasedPending
+            extends Pending
+    {
+        @Inject
+        public PhasedPending() { }
+    }
+
+    private static Module services(final Class<?>... classes)
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                for (Class<?> clazz : classes) {
+                    binder.bind(clazz).in(Scopes.SINGLETON);
+                }
+            }
+        };
+    }
+
+    private static String rootMessage(Throwable ex)
+    {
+        while (ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex.getMessage();
+    }
+
+    @Test
+    public void testRollbackStartedInstances()
+            throws Exception
+    {
+        try {
+            new Bootstrap(services(StartedFirst.class, Failing.class, Pending.class))
+                .failFast(true)
+                .initializeCloseable();
+            Assert.fail();
+        }
+        catch (Error ex) {
+            Assert.assertEquals(rootMessage(ex), "failing");
+        }
+        Assert.assertEquals(events, Arrays.asList("startStartedFirst", "stopStartedFirst"));
+    }
+
+    @Test
+    public void testStartedInstancesAreNotDestroyedByDefault()
+            throws Exception
+    {
+        try {
+            new Bootstrap(services(StartedFirst.class, Failing.class)).initializeCloseable();
+            Assert.fail();
+        }
+        catch (Error ex) {
+            Assert.assertEquals(rootMessage(ex), "failing");
+        }
+        Assert.assertEquals(events, Arrays.asList("startStartedFirst"));
+    }
+
+    @Test
+    public void testAbortConcurrentStart()
+            throws Exception
+    {
+        try {
+            new Bootstrap(services(Started.class, PhasedFailing.class, PhasedBlocking.class, PhasedPending.class))
+                .postConstructConcurrently(executor)
+                .failFast(true)
+                .initializeCloseable();
+            Assert.fail();
+        }
+        catch (IllegalStateException ex) {
+            Assert.assertEquals(ex.getMessage(), "failing");
+        }
+        // Blocking records interruptedBlocking instead of startBlocking only if the startup interrupted it
+        Assert.assertEquals(events, Arrays.asList("startStarted", "interruptedBlocking", "stopStarted"));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+@Test(singleThreaded = true)
+public class TestInjectorPool
+{
+    private static final AtomicInteger started = new AtomicInteger();
+    private static final AtomicInteger stopped = new AtomicInteger();
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        started.set(0);
+        stopped.set(0);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterMethod
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    public static class JobService
+    {
+        @Inject
+        public JobService() { }
+
+        @PostConstruct
+        public void start()
+        {
+            started.incrementAndGet();
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            stopped.incrementAndGet();
+        }
+    }
+
+    private static Supplier<Bootstrap> bootstrapFactory()
+    {
+        return new Supplier<Bootstrap>() {
+            public Bootstrap get()
+            {
+                return new Bootstrap(new Module()
+                {
+                    @Override
+                    public void configure(Binder binder)
+                    {
+                        binder.bind(JobService.class).in(Scopes.SINGLETON);
+                    }
+                });
+            }
+        };
+    }
+
+    @Test
+    public void testTakeAndClose()
+            throws Exception
+    {
+        InjectorPool pool = new InjectorPool(bootstrapFactory(), 2, executor);
+
+        CloseableInjector first = pool.take();
+        CloseableInjector second = pool.take();
+        Assert.assertNotSame(first.getInstance(JobService.class), second.getInstance(JobService.class));
+
+        first.close();
+        Assert.assertTrue(first.isDestroyed());
+        first.destroyAsync(executor).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(stopped.get(), 1);
+
+        second.close();
+        pool.close();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // 2 taken, and replacements started before close() unless close() cancelled them
+        Assert.assertTrue(started.get() >= 2 && started.get() <= 4);
+        Assert.assertEquals(stopped.get(), started.get());
+    }
+
+    @Test
+    public void testTakeAfterClose()
+            throws Exception
+    {
+        InjectorPool pool = new InjectorPool(bootstrapFactory(), 1, executor);
+        pool.close();
+        try {
+            pool.take();
+            Assert.fail();
+        }
+        catch (IllegalStateException ex) {
+            // expected
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(stopped.get(), started.get());
+    }
+
+    public static class FailingJobService
+    {
+        @Inject
+        public FailingJobService() { }
+
+        @PreDestroy
+        public void stop()
+        {
+            throw new IllegalStateException("stop failed");
+        }
+    }
+
+    @Test
+    public void testLogDestroyFailure()
+            throws Exception
+    {
+        final CountDownLatch logged = new CountDownLatch(1);
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Handler handler = new Handler()
+        {
+            @Override
+            public void publish(LogRecord record)
+            {
+                thrown.set(record.getThrown());
+                logged.countDown();
+            }
+
+            @Override
+            public void flush()
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        Logger logger = Logger.getLogger(InjectorPool.class.getName());
+        logger.addHandler(handler);
+        try {
+            InjectorPool pool = new InjectorPool(new Supplier<Bootstrap>() {
+                public Bootstrap get()
+                {
+                    return new Bootstrap(new Module()
+                    {
+                        @Override
+                        public void configure(Binder binder)
+                        {
+                            binder.bind(FailingJobService.class).in(Scopes.SINGLETON);
+                        }
+                    });
+                }
+            }, 1, executor);
+
+            pool.take().close();
+            Assert.assertTrue(logged.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(thrown.get() instanceof InvocationTargetException, String.valueOf(thrown.get()));
+            Assert.assertEquals(thrown.get().getCause().getMessage(), "stop failed");
+
+            pool.close();
+        }
+        finally {
+            logger.removeHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.PrivateModule;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@Test(singleThreaded = true)
+public class TestLazyModules
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+    }
+
+    public static class Core
+    {
+        @Inject
+        public Core() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startCore");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopCore");
+        }
+    }
+
+    public static class Plugin
+    {
+        @Inject
+        public Plugin(Core core)
+        {
+            events.add("Plugin");
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startPlugin");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopPlugin");
+        }
+    }
+
+    public interface Exposed
+    {
+    }
+
+    public static class ExposedImpl
+            implements Exposed
+    {
+        @Inject
+        public ExposedImpl(Plugin plugin) { }
+    }
+
+    private static Bootstrap bootstrap()
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Core.class).in(Scopes.SINGLETON);
+            }
+        }).addLazyModules(new PrivateModule()
+        {
+            @Override
+            protected void configure()
+            {
+                bind(Plugin.class).in(Scopes.SINGLETON);
+                bind(Exposed.class).to(ExposedImpl.class);
+                expose(Exposed.class);
+            }
+        });
+    }
+
+    @Test
+    public void testBuiltAtFirstRequest()
+            throws Exception
+    {
+        CloseableInjector injector = bootstrap().initializeCloseable();
+        Assert.assertEquals(events, Arrays.asList("startCore"));
+
+        Assert.assertNotNull(injector.getInstance(Exposed.class));
+        Assert.assertEquals(events, Arrays.asList("startCore", "Plugin", "startPlugin"));
+        Assert.assertNotNull(injector.getProvider(Exposed.class).get());
+        Assert.assertEquals(events.size(), 3);
+
+        injector.close();
+        Assert.assertEquals(events.subList(3, 5), Arrays.asList("stopPlugin", "stopCore"));
+    }
+
+    @Test
+    public void testNotDestroyedUnlessBuilt()
+            throws Exception
+    {
+        CloseableInjector injector = bootstrap().initializeCloseable();
+        injector.close();
+        Assert.assertEquals(events, Arrays.asList("startCore", "stopCore"));
+    }
+}
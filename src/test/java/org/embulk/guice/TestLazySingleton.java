@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@Test(singleThreaded = true)
+public class TestLazySingleton
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+    }
+
+    @LazySingleton
+    public static class ExpensiveService
+    {
+        @Inject
+        public ExpensiveService()
+        {
+            events.add("ExpensiveService");
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            TestConcurrentLifeCycle.sleep(100);
+            events.add("startExpensiveService");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopExpensiveService");
+        }
+    }
+
+    public static class User
+    {
+        @Inject
+        public User(Provider<ExpensiveService> service) { }
+    }
+
+    private static Bootstrap bootstrap()
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(ExpensiveService.class);
+                binder.bind(User.class).asEagerSingleton();
+            }
+        });
+    }
+
+    @Test
+    public void testStartedAtFirstRequest()
+            throws Exception
+    {
+        final CloseableInjector injector = bootstrap().initializeCloseable();
+        Assert.assertTrue(events.isEmpty());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ExpensiveService>> futures = executor.invokeAll(Arrays.asList(
+                        new GetService(injector), new GetService(injector), new GetService(injector)));
+            for (Future<ExpensiveService> future : futures) {
+                Assert.assertSame(future.get(), injector.getInstance(ExpensiveService.class));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(events, Arrays.asList("ExpensiveService", "startExpensiveService"));
+
+        injector.close();
+        Assert.assertEquals(events.get(2), "stopExpensiveService");
+    }
+
+    @Test
+    public void testNotDestroyedUnlessRequested()
+            throws Exception
+    {
+        CloseableInjector injector = bootstrap().initializeCloseable();
+        injector.close();
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    private static class GetService
+            implements Callable<ExpensiveService>
+    {
+        private final CloseableInjector injector;
+
+        GetService(CloseableInjector injector)
+        {
+            this.injector = injector;
+        }
+
+        @Override
+        public ExpensiveService call()
+        {
+            return injector.getProvider(ExpensiveService.class).get();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.OutOfScopeException;
+import com.google.inject.ProvisionException;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@Test(singleThreaded = true)
+public class TestLifeCycleScope
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+    }
+
+    public static class Service
+    {
+        @Inject
+        public Service() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startService");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopService");
+        }
+    }
+
+    @LifeCycleScoped
+    public static class Connection
+    {
+        @Inject
+        public Connection(Service service) { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startConnection");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopConnection");
+        }
+    }
+
+    @LifeCycleScoped
+    public static class Task
+    {
+        private final Connection connection;
+
+        @Inject
+        public Task(Connection connection)
+        {
+            this.connection = connection;
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startTask");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopTask");
+        }
+    }
+
+    private static Module module()
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Service.class).in(Scopes.SINGLETON);
+                binder.bind(Connection.class);
+                binder.bind(Task.class);
+            }
+        };
+    }
+
+    @Test
+    public void testDestroysInstancesOfUnitInReverseOrder()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(module()).initializeCloseable();
+        LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
+        LifeCycleScope scope = injector.getInstance(LifeCycleScope.class);
+        int size = lifeCycleManager.size();
+
+        for (int i = 0; i < 2; i++) {
+            events.clear();
+            try (LifeCycleScope.Unit unit = scope.enter()) {
+                Task task = injector.getInstance(Task.class);
+                Assert.assertSame(injector.getInstance(Task.class), task);
+                Assert.assertSame(injector.getInstance(Connection.class), task.connection);
+                Assert.assertEquals(lifeCycleManager.size(), size);
+            }
+            Assert.assertEquals(events, Arrays.asList("startConnection", "startTask", "stopTask", "stopConnection"));
+        }
+
+        events.clear();
+        injector.close();
+        Assert.assertEquals(events, Arrays.asList("stopService"));
+    }
+
+    @Test
+    public void testUnitsAreIndependent()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(module()).initializeCloseable();
+        LifeCycleScope scope = injector.getInstance(LifeCycleScope.class);
+
+        Task first;
+        LifeCycleScope.Unit unit = scope.enter();
+        first = injector.getInstance(Task.class);
+        unit.close();
+
+        try (LifeCycleScope.Unit second = scope.enter()) {
+            Assert.assertNotSame(injector.getInstance(Task.class), first);
+        }
+        injector.close();
+    }
+
+    @Test
+    public void testOutOfUnit()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(module()).initializeCloseable();
+        LifeCycleScope scope = injector.getInstance(LifeCycleScope.class);
+
+        try {
+            injector.getInstance(Task.class);
+            Assert.fail();
+        }
+        catch (ProvisionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof OutOfScopeException);
+        }
+
+        try (LifeCycleScope.Unit unit = scope.enter()) {
+            try {
+                scope.enter();
+                Assert.fail();
+            }
+            catch (IllegalStateException ex) {
+            }
+        }
+        injector.close();
+    }
+
+    public static class Driver
+    {
+        @Inject
+        public Driver() { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startDriver");
+        }
+    }
+
+    @LifeCycleScoped
+    public static class Session
+    {
+        @Inject
+        public Session(Driver driver) { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startSession");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopSession");
+        }
+    }
+
+    @LifeCycleScoped
+    public static class Query
+    {
+        @Inject
+        public Query(Session session) { }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startQuery");
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stopQuery");
+        }
+    }
+
+    @Test
+    public void testStartsDependenciesOfNestedInstancesFirst()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Driver.class);
+                binder.bind(Session.class);
+                binder.bind(Query.class);
+            }
+        }).initializeCloseable();
+        LifeCycleScope scope = injector.getInstance(LifeCycleScope.class);
+
+        try (LifeCycleScope.Unit unit = scope.enter()) {
+            injector.getInstance(Query.class);
+            Assert.assertEquals(events, Arrays.asList("startDriver", "startSession", "startQuery"));
+        }
+        Assert.assertEquals(events.subList(3, 5), Arrays.asList("stopQuery", "stopSession"));
+        injector.close();
+    }
+
+    public static class Database
+    {
+        private volatile boolean started;
+
+        @Inject
+        public Database() { }
+
+        @PostConstruct
+        public void start()
+        {
+            started = true;
+        }
+    }
+
+    @LifeCycleScoped
+    public static class Report
+    {
+        @Inject
+        public Report(Database database)
+        {
+            events.add(database.started ? "constructReportWithStartedDatabase" : "constructReportWithLatentDatabase");
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            events.add("startReport");
+        }
+    }
+
+    @Test
+    public void testStartsDependenciesBeforeConstructingInstance()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Database.class);
+                binder.bind(Report.class);
+            }
+        }).initializeCloseable();
+        LifeCycleScope scope = injector.getInstance(LifeCycleScope.class);
+
+        try (LifeCycleScope.Unit unit = scope.enter()) {
+            injector.getInstance(Report.class);
+            Assert.assertEquals(events, Arrays.asList("constructReportWithStartedDatabase", "startReport"));
+        }
+        injector.close();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.Sets;
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@Test(singleThreaded = true)
+public class TestPreStop
+{
+    private static final List<String> events = new CopyOnWriteArrayList<>();
+    private static CountDownLatch closing;
+
+    @BeforeMethod
+    public void setup()
+    {
+        events.clear();
+        closing = new CountDownLatch(3);
+    }
+
+    /**
+     * Waits until the other PreStop methods are running too, which never happens if they are called serially
+     */
+    static void awaitOthers(String name)
+    {
+        closing.countDown();
+        try {
+            if (closing.await(5, TimeUnit.SECONDS)) {
+                events.add(name);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public abstract static class Server
+    {
+        @PreStop
+        public void close()
+        {
+            awaitOthers("close" + getClass().getSimpleName());
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stop" + getClass().getSimpleName());
+        }
+    }
+
+    public static class ServerA
+            extends Server
+    {
+        @Inject
+        public ServerA() { }
+    }
+
+    public static class ServerB
+            extends Server
+    {
+        @Inject
+        public ServerB(ServerA a) { }
+    }
+
+    public static class Listener
+    {
+        @Inject
+        public Listener(ServerB b) { }
+
+        @PreStop
+        public void close()
+        {
+            awaitOthers("closeListener");
+        }
+    }
+
+    public static class FailingListener
+    {
+        @Inject
+        public FailingListener(ServerA a) { }
+
+        @PreStop
+        public void close()
+        {
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    public static class RecordingListener
+            extends LoggingLifeCycleListener
+    {
+        @Override
+        public void preStoppingInstance(Object obj, Method preStop)
+        {
+            events.add("preStopping" + obj.getClass().getSimpleName());
+        }
+    }
+
+    private static Module singletons(final Class<?>... classes)
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                for (Class<?> clazz : classes) {
+                    binder.bind(clazz).in(Scopes.SINGLETON);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testPreStopBeforePreDestroy()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(singletons(Listener.class, ServerA.class, ServerB.class))
+            .initializeCloseable();
+
+        injector.close();
+
+        // all PreStop methods ran at the same time before PreDestroy methods
+        Assert.assertEquals(events.size(), 5);
+        Assert.assertEquals(Sets.newHashSet(events.subList(0, 3)), Sets.newHashSet("closeListener", "closeServerA", "closeServerB"));
+        Assert.assertEquals(events.subList(3, 5), Arrays.asList("stopServerB", "stopServerA"));
+    }
+
+    @Test
+    public void testPreStopFailure()
+            throws Exception
+    {
+        closing = new CountDownLatch(1);
+        CloseableInjector injector = new Bootstrap(singletons(FailingListener.class, ServerA.class))
+            .addLifeCycleListeners(new RecordingListener())
+            .initializeCloseable();
+
+        try {
+            injector.close();
+            Assert.fail();
+        }
+        catch (IllegalStateException ex) {
+            Assert.assertEquals(ex.getMessage(), "failing");
+        }
+        Assert.assertEquals(events.get(events.size() - 1), "stopServerA");
+        Assert.assertTrue(events.contains("preStoppingFailingListener"));
+        Assert.assertTrue(events.contains("closeServerA"));
+        Assert.assertTrue(events.indexOf("closeServerA") < events.indexOf("stopServerA"));
+        Assert.assertTrue(injector.isDestroyed());
+    }
+
+    public abstract static class Job
+    {
+        @PreStop
+        public void close()
+        {
+            events.add("close" + getClass().getSimpleName());
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            events.add("stop" + getClass().getSimpleName());
+        }
+    }
+
+    public static class FirstJob
+            extends Job
+    {
+        @Inject
+        public FirstJob() { }
+    }
+
+    public static class SecondJob
+            extends Job
+    {
+        @Inject
+        public SecondJob() { }
+    }
+
+    public static class ThirdJob
+            extends Job
+    {
+        @Inject
+        public ThirdJob() { }
+    }
+
+    @Test
+    public void testPreStopChildrenBeforeDestroyingAny()
+            throws Exception
+    {
+        CloseableInjector parent = new Bootstrap(singletons(FirstJob.class)).initializeCloseable();
+        CloseableInjector child = parent.createChildLifeCycleInjector(singletons(SecondJob.class));
+        child.createChildLifeCycleInjector(singletons(ThirdJob.class));
+        parent.createChildLifeCycleInjector(singletons(ThirdJob.class)).close();
+        events.clear();
+
+        parent.close();
+        Assert.assertEquals(Sets.newHashSet(events.subList(0, 3)), Sets.newHashSet("closeFirstJob", "closeSecondJob", "closeThirdJob"));
+        Assert.assertEquals(events.subList(3, 6), Arrays.asList("stopThirdJob", "stopSecondJob", "stopFirstJob"));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Binder;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import com.google.inject.TypeLiteral;
+import com.google.inject.multibindings.Multibinder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class TestPreparedBootstrap
+{
+    public interface Greeter
+    {
+        String greet();
+    }
+
+    public static class Service
+    {
+        private boolean started;
+        private boolean stopped;
+
+        @Inject
+        public Service() { }
+
+        @PostConstruct
+        public void start()
+        {
+            started = true;
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            stopped = true;
+        }
+    }
+
+    @Test
+    public void testCreatesInjectorsFromRecordedBindings()
+            throws Exception
+    {
+        final AtomicInteger configured = new AtomicInteger();
+        final AtomicInteger overridden = new AtomicInteger();
+        PreparedBootstrap prepared = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                configured.incrementAndGet();
+                binder.bind(Service.class).in(Scopes.SINGLETON);
+                binder.bind(Greeter.class).toInstance(new Greeter()
+                {
+                    public String greet()
+                    {
+                        return "hello";
+                    }
+                });
+            }
+        }).overrideModules(new Function<List<Module>, List<Module>>() {
+            public List<Module> apply(List<Module> modules)
+            {
+                overridden.incrementAndGet();
+                return ImmutableList.copyOf(modules);
+            }
+        }).prepare();
+
+        CloseableInjector first = prepared.initializeCloseable();
+        CloseableInjector second = prepared.initializeCloseable();
+        Assert.assertEquals(configured.get(), 1);
+        Assert.assertEquals(overridden.get(), 1);
+        Assert.assertEquals(second.getInstance(Greeter.class).greet(), "hello");
+
+        Service firstService = first.getInstance(Service.class);
+        Service secondService = second.getInstance(Service.class);
+        Assert.assertNotSame(firstService, secondService);
+        Assert.assertTrue(firstService.started);
+        Assert.assertTrue(secondService.started);
+
+        first.close();
+        Assert.assertTrue(firstService.stopped);
+        Assert.assertFalse(secondService.stopped);
+        second.close();
+        Assert.assertTrue(secondService.stopped);
+    }
+
+    public static class Greeting
+    {
+        private final Provider<Greeter> greeter;
+
+        Greeting(Provider<Greeter> greeter)
+        {
+            this.greeter = greeter;
+        }
+    }
+
+    private static Module lookupModule(final AtomicInteger configured)
+    {
+        return new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                configured.incrementAndGet();
+                binder.bind(Greeter.class).toInstance(new Greeter()
+                {
+                    public String greet()
+                    {
+                        return "hello";
+                    }
+                });
+                binder.bind(Greeting.class).toInstance(new Greeting(binder.getProvider(Greeter.class)));
+            }
+        };
+    }
+
+    @Test
+    public void testModuleWithProviderLookup()
+            throws Exception
+    {
+        AtomicInteger configured = new AtomicInteger();
+        PreparedBootstrap prepared = new Bootstrap(lookupModule(configured)).prepare();
+
+        CloseableInjector first = prepared.initializeCloseable();
+        CloseableInjector second = prepared.initializeCloseable();
+        Assert.assertEquals(first.getInstance(Greeting.class).greeter.get().greet(), "hello");
+        Assert.assertEquals(second.getInstance(Greeting.class).greeter.get().greet(), "hello");
+        Assert.assertEquals(configured.get(), 2);
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testLazyModuleWithProviderLookup()
+            throws Exception
+    {
+        AtomicInteger configured = new AtomicInteger();
+        PreparedBootstrap prepared = new Bootstrap().addLazyModules(lookupModule(configured)).prepare();
+
+        CloseableInjector first = prepared.initializeCloseable();
+        CloseableInjector second = prepared.initializeCloseable();
+        Assert.assertEquals(first.getInstance(Greeting.class).greeter.get().greet(), "hello");
+        Assert.assertEquals(second.getInstance(Greeting.class).greeter.get().greet(), "hello");
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testModuleWithMultibinder()
+            throws Exception
+    {
+        final AtomicInteger configured = new AtomicInteger();
+        PreparedBootstrap prepared = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                configured.incrementAndGet();
+                binder.bind(Service.class).in(Scopes.SINGLETON);
+                Multibinder.newSetBinder(binder, Service.class).addBinding().to(Service.class);
+            }
+        }).prepare();
+
+        CloseableInjector first = prepared.initializeCloseable();
+        CloseableInjector second = prepared.initializeCloseable();
+        Set<Service> firstServices = first.getInstance(Key.get(new TypeLiteral<Set<Service>>() {}));
+        Set<Service> secondServices = second.getInstance(Key.get(new TypeLiteral<Set<Service>>() {}));
+        Assert.assertEquals(firstServices, ImmutableSet.of(first.getInstance(Service.class)));
+        Assert.assertEquals(secondServices, ImmutableSet.of(second.getInstance(Service.class)));
+        Assert.assertEquals(configured.get(), 2);
+        first.close();
+        second.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testBootstrapIsConsumedByPrepare()
+    {
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.prepare();
+        bootstrap.initialize();
+    }
+}
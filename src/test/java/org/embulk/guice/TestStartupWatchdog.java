@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.CreationException;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@Test(singleThreaded = true)
+public class TestStartupWatchdog
+{
+    private static final List<String> reports = new CopyOnWriteArrayList<>();
+    private static volatile boolean interrupted;
+
+    @BeforeMethod
+    public void setup()
+    {
+        reports.clear();
+        interrupted = false;
+    }
+
+    public static class RecordingListener
+            extends LoggingLifeCycleListener
+    {
+        @Override
+        public void postConstructTimedOut(Object obj, Method postConstruct, long elapsedMillis, StackTraceElement[] stackTrace)
+        {
+            boolean inMethod = false;
+            for (StackTraceElement element : stackTrace) {
+                if (element.getClassName().equals(obj.getClass().getName()) && element.getMethodName().equals(postConstruct.getName())) {
+                    inMethod = true;
+                }
+            }
+            reports.add(obj.getClass().getSimpleName() + (inMethod ? " in " : " not in ") + postConstruct.getName());
+        }
+    }
+
+    public static class SlowA
+    {
+        @Inject
+        public SlowA() { }
+
+        @PostConstruct
+        public void start()
+        {
+            TestConcurrentLifeCycle.sleep(150);
+        }
+    }
+
+    public static class SlowB
+    {
+        @Inject
+        public SlowB() { }
+
+        @PostConstruct
+        public void start()
+        {
+            TestConcurrentLifeCycle.sleep(150);
+        }
+    }
+
+    public static class Blocking
+    {
+        @Inject
+        public Blocking() { }
+
+        @PostConstruct
+        public void start()
+        {
+            try {
+                Thread.sleep(10000);
+            }
+            catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+    }
+
+    private static Bootstrap bootstrap(final Class<?>... classes)
+    {
+        return new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                for (Class<?> clazz : classes) {
+                    binder.bind(clazz).in(Scopes.SINGLETON);
+                }
+            }
+        }).addLifeCycleListeners(new RecordingListener());
+    }
+
+    @Test
+    public void testReportSlowPostConstruct()
+            throws Exception
+    {
+        bootstrap(SlowA.class)
+            .watchStartup(50, 0, TimeUnit.MILLISECONDS, false)
+            .initializeCloseable()
+            .close();
+        Assert.assertEquals(reports.size(), 1);
+        Assert.assertEquals(reports.get(0), "SlowA in start");
+    }
+
+    @Test
+    public void testReportTotalBudget()
+            throws Exception
+    {
+        bootstrap(SlowA.class, SlowB.class)
+            .watchStartup(0, 200, TimeUnit.MILLISECONDS, false)
+            .initializeCloseable()
+            .close();
+        Assert.assertEquals(reports.size(), 1);
+        Assert.assertEquals(reports.get(0), "SlowB in start");
+    }
+
+    @Test
+    public void testAbortStartup()
+            throws Exception
+    {
+        try {
+            bootstrap(Blocking.class)
+                .watchStartup(100, 0, TimeUnit.MILLISECONDS, true)
+                .initializeCloseable();
+            Assert.fail();
+        }
+        catch (Error ex) {
+            Assert.assertTrue(ex.getCause() instanceof TimeoutException);
+            Assert.assertTrue(ex.getCause().getMessage().contains(Blocking.class.getName()));
+        }
+        Assert.assertTrue(interrupted, "startup was not aborted");
+        Assert.assertEquals(reports.size(), 1);
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    public static class Unscoped
+    {
+        private boolean started;
+
+        @Inject
+        public Unscoped() { }
+
+        @PostConstruct
+        public void start()
+        {
+            started = true;
+        }
+    }
+
+    @Test
+    public void testPostConstructAfterStartupIsNotWatched()
+            throws Exception
+    {
+        CloseableInjector injector = bootstrap(SlowA.class)
+            .addModules(new Module()
+            {
+                @Override
+                public void configure(Binder binder)
+                {
+                    binder.bind(Unscoped.class);
+                }
+            })
+            .watchStartup(50, 0, TimeUnit.MILLISECONDS, false)
+            .initializeCloseable();
+        Assert.assertEquals(reports.size(), 1);
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertTrue(injector.getInstance(Unscoped.class).started);
+        }
+        injector.close();
+    }
+
+    public static class Failing
+    {
+        @Inject
+        public Failing()
+        {
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    @Test
+    public void testCloseWatchdogWhenInjectorCreationFails()
+            throws Exception
+    {
+        Set<Thread> existing = Thread.getAllStackTraces().keySet();
+        try {
+            bootstrap(SlowA.class, Failing.class)
+                .watchStartup(0, 1, TimeUnit.MINUTES, false)
+                .initializeCloseable();
+            Assert.fail();
+        }
+        catch (CreationException ex) {
+            Assert.assertTrue(ex.getMessage().contains("failing"));
+        }
+
+        // the timer thread of the watchdog ends instead of waiting for the total budget
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!existing.contains(thread) && thread.getName().startsWith("startup-watchdog-")) {
+                thread.join(5000);
+                Assert.assertFalse(thread.isAlive(), "watchdog is not closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(singleThreaded = true)
+public class TestTaskAborter
+{
+    @Test
+    public void testExitClearsInterruptOfAbort()
+    {
+        final TaskAborter aborter = new TaskAborter();
+        Assert.assertTrue(aborter.enter());
+        Thread failing = new Thread() {
+            @Override
+            public void run()
+            {
+                aborter.abort();
+            }
+        };
+        failing.start();
+        while (!Thread.currentThread().isInterrupted()) {
+            Thread.yield();  // join() would be interrupted by the abort
+        }
+
+        aborter.exit();
+        Assert.assertFalse(Thread.interrupted());
+        Assert.assertFalse(aborter.enter());
+    }
+
+    @Test
+    public void testExitKeepsOtherInterrupts()
+    {
+        TaskAborter aborter = new TaskAborter();
+        Assert.assertTrue(aborter.enter());
+
+        // interrupted by shutdownNow() or the caller, and then the task fails
+        Thread.currentThread().interrupt();
+        aborter.abort();
+
+        aborter.exit();
+        Assert.assertTrue(Thread.interrupted());
+    }
+}
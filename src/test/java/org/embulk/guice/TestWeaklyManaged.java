@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Sadayuki Furuhashi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.guice;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Test(singleThreaded = true)
+public class TestWeaklyManaged
+{
+    private static final AtomicInteger started = new AtomicInteger();
+    private static final Set<Integer> released = ConcurrentHashMap.newKeySet();
+
+    @BeforeMethod
+    public void setup()
+    {
+        started.set(0);
+        released.clear();
+    }
+
+    public static class Task
+            implements WeaklyManaged
+    {
+        private int id;
+
+        @Inject
+        public Task() { }
+
+        @PostConstruct
+        public void start()
+        {
+            id = started.incrementAndGet();
+        }
+
+        @Override
+        public Runnable cleanupAction()
+        {
+            return new Release(id);
+        }
+    }
+
+    private static class Release
+            implements Runnable
+    {
+        private final int id;
+
+        Release(int id)
+        {
+            this.id = id;
+        }
+
+        @Override
+        public void run()
+        {
+            if (!released.add(id)) {
+                throw new IllegalStateException("released twice: " + id);
+            }
+        }
+    }
+
+    @Test
+    public void testCleanupUnreachableInstances()
+            throws Exception
+    {
+        CloseableInjector injector = new Bootstrap(new Module()
+        {
+            @Override
+            public void configure(Binder binder)
+            {
+                binder.bind(Task.class);
+            }
+        }).initializeCloseable();
+        LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
+
+        Task kept = injector.getInstance(Task.class);
+        for (int i = 0; i < 1000; i++) {
+            injector.getInstance(Task.class);
+        }
+
+        long deadline = System.nanoTime() + 10000000000L;
+        while (released.size() < 1000 && System.nanoTime() < deadline) {
+            System.gc();
+            TestConcurrentLifeCycle.sleep(10);
+            injector.getInstance(Task.class);  // runs cleanup actions of unreachable instances
+        }
+        Assert.assertTrue(released.size() >= 1000, "unreachable instances were not cleaned up: " + released.size());
+        Assert.assertFalse(released.contains(kept.id));
+        Assert.assertTrue(lifeCycleManager.size() < 100, "unreachable instances are still tracked: " + lifeCycleManager.size());
+
+        injector.close();
+        Assert.assertTrue(released.contains(kept.id));
+        Assert.assertEquals(released.size(), started.get());
+    }
+}